@@ -56,6 +56,19 @@ public class MathUtil {
 		return min;
 	}
 
+	/** @return the largest absolute difference between the corresponding elements of the two arrays */
+	public static float getMaximumDifference(float[][] a, float[][] b) {
+		float max = 0, d;
+		for (int i = 0; i < a.length; i++) {
+			for (int j = 0; j < a[i].length; j++) {
+				d = Math.abs(a[i][j] - b[i][j]);
+				if (d > max)
+					max = d;
+			}
+		}
+		return max;
+	}
+
 	public static float getAverage(float[][] array) {
 		float ave = 0;
 		for (float[] a : array) {
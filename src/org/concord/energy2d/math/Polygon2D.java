@@ -14,7 +14,7 @@ import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 
 /**
- * Mutatable implementation of polygon (GeneralPath is immutatable).
+ * Mutatable implementation of polygon (GeneralPath is immutatable). The vertices are the only state, so that hit tests have no side effects and can be done by several threads at the same time (e.g., the photon solver); a path is created for the operations that need one.
  * 
  * @author Charles Xie
  * 
@@ -22,7 +22,6 @@ import java.awt.geom.Rectangle2D;
 public class Polygon2D implements Shape {
 
 	private Point2D.Float[] vertex;
-	private GeneralPath path;
 
 	/** the coordinates of the vertices of this polygon. */
 	public Polygon2D(float[] x, float[] y) {
@@ -34,7 +33,6 @@ public class Polygon2D implements Shape {
 		vertex = new Point2D.Float[x.length];
 		for (int i = 0; i < x.length; i++)
 			setVertex(i, x[i], y[i]);
-		path = new GeneralPath();
 	}
 
 	public Polygon2D duplicate() {
@@ -48,12 +46,13 @@ public class Polygon2D implements Shape {
 		return new Polygon2D(x, y);
 	}
 
-	private void updatePath() {
-		path.reset();
+	private GeneralPath createPath() {
+		GeneralPath path = new GeneralPath();
 		path.moveTo(vertex[0].x, vertex[0].y);
 		for (int i = 1; i < vertex.length; i++)
 			path.lineTo(vertex[i].x, vertex[i].y);
 		path.closePath();
+		return path;
 	}
 
 	public void setVertex(int i, float x, float y) {
@@ -87,13 +86,35 @@ public class Polygon2D implements Shape {
 	}
 
 	public boolean intersects(Rectangle r) {
-		updatePath();
-		return path.intersects(r);
+		return createPath().intersects(r);
 	}
 
+	/* the non-zero winding rule of GeneralPath, counting the crossings of a ray to the left of the point with the same conventions, but without building the path */
 	public boolean contains(double x, double y) {
-		updatePath();
-		return path.contains(x, y);
+		if (!(x * 0.0 + y * 0.0 == 0.0)) // NaN or infinity
+			return false;
+		int crossings = 0;
+		double x0, y0, x1, y1, xi;
+		Point2D.Float v = vertex[vertex.length - 1];
+		x0 = v.x;
+		y0 = v.y;
+		for (int i = 0; i < vertex.length; i++) {
+			v = vertex[i];
+			x1 = v.x;
+			y1 = v.y;
+			if (!(y < y0 && y < y1) && !(y >= y0 && y >= y1) && !(x >= x0 && x >= x1)) {
+				if (x < x0 && x < x1) {
+					crossings += y0 < y1 ? 1 : -1;
+				} else {
+					xi = x0 + (y - y0) * (x1 - x0) / (y1 - y0);
+					if (x < xi)
+						crossings += y0 < y1 ? 1 : -1;
+				}
+			}
+			x0 = x1;
+			y0 = y1;
+		}
+		return crossings != 0;
 	}
 
 	public Point2D.Float getCenter() {
@@ -129,33 +150,27 @@ public class Polygon2D implements Shape {
 	}
 
 	public boolean contains(Rectangle2D r) {
-		updatePath();
-		return path.contains(r);
+		return createPath().contains(r);
 	}
 
 	public boolean contains(double x, double y, double w, double h) {
-		updatePath();
-		return path.contains(x, y, w, h);
+		return createPath().contains(x, y, w, h);
 	}
 
 	public PathIterator getPathIterator(AffineTransform at) {
-		updatePath();
-		return path.getPathIterator(at);
+		return createPath().getPathIterator(at);
 	}
 
 	public PathIterator getPathIterator(AffineTransform at, double flatness) {
-		updatePath();
-		return path.getPathIterator(at, flatness);
+		return createPath().getPathIterator(at, flatness);
 	}
 
 	public boolean intersects(Rectangle2D r) {
-		updatePath();
-		return intersects(r);
+		return createPath().intersects(r);
 	}
 
 	public boolean intersects(double x, double y, double w, double h) {
-		updatePath();
-		return intersects(x, y, w, h);
+		return createPath().intersects(x, y, w, h);
 	}
 
 }
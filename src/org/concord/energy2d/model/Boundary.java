@@ -5,6 +5,10 @@
 
 package org.concord.energy2d.model;
 
+import java.io.IOException;
+
+import org.concord.energy2d.util.XmlAppender;
+
 /**
  * @author Charles Xie
  * 
@@ -16,6 +20,6 @@ public interface Boundary {
 	public static final byte LOWER = 2;
 	public static final byte LEFT = 3;
 
-	public String toXml();
+	public void toXml(XmlAppender out) throws IOException;
 
 }
@@ -5,8 +5,11 @@
 
 package org.concord.energy2d.model;
 
+import java.io.IOException;
 import java.util.Arrays;
 
+import org.concord.energy2d.util.XmlAppender;
+
 /**
  * @author Charles Xie
  * 
@@ -77,13 +80,13 @@ public class ComplexDirichletThermalBoundary implements ThermalBoundary {
 		}
 	}
 
-	public String toXml() {
-		String s = "<temperature_at_border upper=\"" + Arrays.toString(temperatureUpper) + "\"";
-		s += " lower=\"" + Arrays.toString(temperatureLower) + "\"";
-		s += " left=\"" + Arrays.toString(temperatureLeft) + "\"";
-		s += " right=\"" + Arrays.toString(temperatureRight) + "\"";
-		s += "/>\n";
-		return s;
+	public void toXml(XmlAppender out) throws IOException {
+		out.append("<temperature_at_border");
+		out.attribute("upper", Arrays.toString(temperatureUpper));
+		out.attribute("lower", Arrays.toString(temperatureLower));
+		out.attribute("left", Arrays.toString(temperatureLeft));
+		out.attribute("right", Arrays.toString(temperatureRight));
+		out.append("/>\n");
 	}
 
 }
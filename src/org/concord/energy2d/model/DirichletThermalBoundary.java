@@ -5,6 +5,10 @@
 
 package org.concord.energy2d.model;
 
+import java.io.IOException;
+
+import org.concord.energy2d.util.XmlAppender;
+
 /**
  * This is a simple Dirichlet thermal boundary that has the same temperature on each side.
  * 
@@ -39,13 +43,13 @@ public class DirichletThermalBoundary implements ThermalBoundary {
 		return temperatureAtBorder[side];
 	}
 
-	public String toXml() {
-		String s = "<temperature_at_border upper=\"" + temperatureAtBorder[UPPER] + "\"";
-		s += " lower=\"" + temperatureAtBorder[LOWER] + "\"";
-		s += " left=\"" + temperatureAtBorder[LEFT] + "\"";
-		s += " right=\"" + temperatureAtBorder[RIGHT] + "\"";
-		s += "/>\n";
-		return s;
+	public void toXml(XmlAppender out) throws IOException {
+		out.append("<temperature_at_border");
+		out.attribute("upper", temperatureAtBorder[UPPER]);
+		out.attribute("lower", temperatureAtBorder[LOWER]);
+		out.attribute("left", temperatureAtBorder[LEFT]);
+		out.attribute("right", temperatureAtBorder[RIGHT]);
+		out.append("/>\n");
 	}
 
 }
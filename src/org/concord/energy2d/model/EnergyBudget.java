@@ -0,0 +1,182 @@
+/*
+ *   Copyright (C) 2012  The Concord Consortium, Inc.,
+ *   25 Love Lane, Concord, MA 01742
+ */
+
+package org.concord.energy2d.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The energy budget of a model, per unit depth: the thermal energy stored in the interior of the grid (J/m), the power injected through the power array by the heat sources and the photons, the power lost through the borders and the power leaked in the z direction (W/m). Whatever the three rates do not account for, such as the heat exchanged with parts kept at a constant temperature and the errors of the solvers, accumulates in the imbalance (J/m), which stays near zero if a run conserves energy.
+ * 
+ * All the terms and the energy stored in each part are summed in a single pass over the grid after each step, using the map of the cells owned by the parts instead of testing the shapes of the parts. They are added to the time series at the measurement steps.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class EnergyBudget {
+
+	private final static int DEFAULT_CAPACITY = 1000;
+
+	private Model2D model;
+	private TimeSeries storedEnergy, power, borderLoss, zLoss, imbalance;
+	// the parts that the cell owners refer to, whose energies are kept in the series at the same indices
+	private Part[] parts = new Part[0];
+	private List<TimeSeries> partEnergies = new ArrayList<TimeSeries>();
+	private double[] partSums = new double[0];
+	// the stored energy when the budget started and the net energy that has flowed in since then
+	private double initialEnergy = Double.NaN;
+	private double netInput;
+	// the heat solver leaks heat in the z direction at the rate given by the temperatures before a step
+	private double previousLeak;
+
+	EnergyBudget(Model2D model) {
+		this.model = model;
+		storedEnergy = new TimeSeries(DEFAULT_CAPACITY);
+		power = new TimeSeries(DEFAULT_CAPACITY);
+		borderLoss = new TimeSeries(DEFAULT_CAPACITY);
+		zLoss = new TimeSeries(DEFAULT_CAPACITY);
+		imbalance = new TimeSeries(DEFAULT_CAPACITY);
+	}
+
+	/** the thermal energy stored in the interior of the grid (J/m) */
+	public TimeSeries getStoredEnergy() {
+		return storedEnergy;
+	}
+
+	/** the power injected through the power array (W/m) */
+	public TimeSeries getPower() {
+		return power;
+	}
+
+	/** the power conducted out through the borders (W/m) */
+	public TimeSeries getBorderLoss() {
+		return borderLoss;
+	}
+
+	/** the power leaked in the z direction (W/m) */
+	public TimeSeries getZLoss() {
+		return zLoss;
+	}
+
+	/** the change of the stored energy not accounted for by the power terms since the budget was started or cleared (J/m) */
+	public TimeSeries getImbalance() {
+		return imbalance;
+	}
+
+	/** the thermal energy stored in the part (J/m), or null if the part was not on the grid at the last step */
+	public TimeSeries getPartEnergy(Part p) {
+		synchronized (partEnergies) {
+			for (int k = 0; k < parts.length; k++) {
+				if (parts[k] == p)
+					return partEnergies.get(k);
+			}
+		}
+		return null;
+	}
+
+	public void clear() {
+		storedEnergy.clear();
+		power.clear();
+		borderLoss.clear();
+		zLoss.clear();
+		imbalance.clear();
+		synchronized (partEnergies) {
+			for (TimeSeries s : partEnergies)
+				s.clear();
+		}
+		initialEnergy = Double.NaN;
+		netInput = previousLeak = 0;
+	}
+
+	/** sum the terms of the budget after a step, and record them if requested */
+	void update(boolean record) {
+
+		float[][] t = model.getTemperature();
+		float[][] q = model.getPowerArray();
+		float[][] tb = model.getTemperatureBoundaryArray();
+		float[][] density = model.getDensity();
+		float[][] specificHeat = model.getSpecificHeat();
+		float[][] conductivity = model.getConductivity();
+		int[][] owner = model.getCellOwners();
+		Part[] owners = model.getCellOwnerParts();
+		int nx = t.length, ny = t[0].length;
+		int nx1 = nx - 1, ny1 = ny - 1;
+		float deltaX = model.getLx() / nx, deltaY = model.getLy() / ny;
+		float zHeatDiffusivity = model.getZHeatDiffusivity();
+		float background = model.getBackgroundTemperature();
+		boolean solveZ = zHeatDiffusivity > 0;
+
+		if (owners != parts) {
+			synchronized (partEnergies) {
+				List<TimeSeries> list = new ArrayList<TimeSeries>();
+				for (Part p : owners) {
+					TimeSeries s = getPartEnergy(p);
+					list.add(s != null ? s : new TimeSeries(DEFAULT_CAPACITY));
+				}
+				partEnergies.clear();
+				partEnergies.addAll(list);
+				parts = owners;
+			}
+			partSums = new double[owners.length];
+		}
+		Arrays.fill(partSums, 0);
+
+		// the interior nodes are the ones the heat solver solves for; the border nodes belong to the boundary
+		double stored = 0, injected = 0, leaked = 0;
+		float energy, capacity;
+		int k;
+		for (int i = 1; i < nx1; i++) {
+			for (int j = 1; j < ny1; j++) {
+				capacity = density[i][j] * specificHeat[i][j];
+				energy = capacity * t[i][j];
+				stored += energy;
+				if ((k = owner[i][j]) >= 0)
+					partSums[k] += energy;
+				if (Float.isNaN(tb[i][j])) {
+					injected += q[i][j];
+					if (solveZ)
+						leaked += capacity * (t[i][j] - background);
+				}
+			}
+		}
+
+		// the heat conducted from the interior nodes into the border nodes, with the same face conductances as the heat solver
+		double lost = 0;
+		float gx = 0.5f * deltaY / deltaX, gy = 0.5f * deltaX / deltaY;
+		for (int j = 1; j < ny1; j++) {
+			lost += gx * (conductivity[1][j] + conductivity[0][j]) * (t[1][j] - t[0][j]);
+			lost += gx * (conductivity[nx1 - 1][j] + conductivity[nx1][j]) * (t[nx1 - 1][j] - t[nx1][j]);
+		}
+		for (int i = 1; i < nx1; i++) {
+			lost += gy * (conductivity[i][1] + conductivity[i][0]) * (t[i][1] - t[i][0]);
+			lost += gy * (conductivity[i][ny1 - 1] + conductivity[i][ny1]) * (t[i][ny1 - 1] - t[i][ny1]);
+		}
+
+		float area = deltaX * deltaY;
+		stored *= area;
+		injected *= area;
+		leaked *= zHeatDiffusivity * area;
+		if (Double.isNaN(initialEnergy))
+			initialEnergy = stored;
+		else
+			netInput += (injected - lost - previousLeak) * model.getTimeStep();
+		previousLeak = leaked;
+
+		if (record) {
+			float time = model.getTime();
+			storedEnergy.add(time, (float) stored);
+			power.add(time, (float) injected);
+			borderLoss.add(time, (float) lost);
+			zLoss.add(time, (float) leaked);
+			imbalance.add(time, (float) (stored - initialEnergy - netInput));
+			for (k = 0; k < partSums.length; k++)
+				partEnergies.get(k).add(time, (float) (partSums[k] * area));
+		}
+
+	}
+
+}
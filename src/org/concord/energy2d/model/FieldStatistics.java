@@ -0,0 +1,63 @@
+/*
+ *   Copyright (C) 2012  The Concord Consortium, Inc.,
+ *   25 Love Lane, Concord, MA 01742
+ */
+
+package org.concord.energy2d.model;
+
+/**
+ * The minimum, the maximum, the sum and the mean of a scalar field over all its nodes. Instances are immutable, so one can be handed to another thread along with the frame it describes.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class FieldStatistics {
+
+	private final float minimum, maximum;
+	private final double sum;
+	private final int count;
+
+	FieldStatistics(float minimum, float maximum, double sum, int count) {
+		this.minimum = minimum;
+		this.maximum = maximum;
+		this.sum = sum;
+		this.count = count;
+	}
+
+	/** compute the statistics of the field with a full pass over it */
+	static FieldStatistics compute(float[][] f) {
+		float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+		double sum = 0;
+		for (float[] a : f) {
+			for (float x : a) {
+				if (x < min)
+					min = x;
+				if (x > max)
+					max = x;
+				sum += x;
+			}
+		}
+		return new FieldStatistics(min, max, sum, f.length * f[0].length);
+	}
+
+	public float getMinimum() {
+		return minimum;
+	}
+
+	public float getMaximum() {
+		return maximum;
+	}
+
+	public double getSum() {
+		return sum;
+	}
+
+	public float getMean() {
+		return (float) (sum / count);
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+}
@@ -33,9 +33,27 @@ abstract class FluidSolver2D {
 	boolean[][] fluidity;
 	MassBoundary boundary;
 	float[][] t;
+	// the statistics of t, which the heat solver produces as it computes t
+	FieldStatistics temperatureStatistics;
 	float[][] uWind, vWind;
 	private float[][] vorticity, stream;
 
+	/*
+	 * contiguous fluid segments of each column, used by the column-averaged buoyancy approximation. segmentBounds[i] lists the cell indices that delimit the segments of column i, segmentIndex[i][j] tells which segment cell (i, j) belongs to, and segmentMean[i] stores the mean temperature of each segment for the current step.
+	 */
+	private int[][] segmentBounds;
+	private int[][] segmentIndex;
+	private float[][] segmentMean;
+	private boolean fluidityChanged = true;
+
+	/*
+	 * non-fluid cells adjacent to fluid cells (packed as i * ny + j) with a code telling which neighbors are fluid, and the remaining non-fluid cells inside obstacles. The boundary conditions on obstacles are applied by iterating over these lists instead of sweeping the whole grid.
+	 */
+	private final static byte WEST = 1, EAST = 2, NORTH = 4, SOUTH = 8;
+	private int[] interfaceCells = new int[0];
+	private byte[] interfaceCodes = new byte[0];
+	private int[] interiorCells = new int[0];
+
 	private float i2dx, i2dy;
 	float idxsq, idysq;
 
@@ -109,8 +127,97 @@ abstract class FluidSolver2D {
 		this.t = t;
 	}
 
+	void setTemperatureStatistics(FieldStatistics temperatureStatistics) {
+		this.temperatureStatistics = temperatureStatistics;
+	}
+
 	void setFluidity(boolean[][] fluidity) {
 		this.fluidity = fluidity;
+		fluidityChanged = true;
+	}
+
+	/** must be called whenever the content of the fluidity array has been changed */
+	void refreshFluidity() {
+		fluidityChanged = true;
+	}
+
+	private void checkFluidity() {
+		if (fluidityChanged) {
+			refreshColumnSegments();
+			refreshObstacleCells();
+			fluidityChanged = false;
+		}
+	}
+
+	private void refreshObstacleCells() {
+		int interfaceCount = 0, interiorCount = 0;
+		int[] cells = new int[nx * ny];
+		byte[] codes = new byte[nx * ny];
+		int[] interior = new int[nx * ny];
+		byte code;
+		for (int i = 1; i < nx1; i++) {
+			for (int j = 1; j < ny1; j++) {
+				if (!fluidity[i][j]) {
+					code = 0;
+					if (fluidity[i - 1][j])
+						code |= WEST;
+					else if (fluidity[i + 1][j])
+						code |= EAST;
+					if (fluidity[i][j - 1])
+						code |= NORTH;
+					else if (fluidity[i][j + 1])
+						code |= SOUTH;
+					if (code == 0) {
+						interior[interiorCount++] = i * ny + j;
+					} else {
+						cells[interfaceCount] = i * ny + j;
+						codes[interfaceCount++] = code;
+					}
+				}
+			}
+		}
+		interfaceCells = Arrays.copyOf(cells, interfaceCount);
+		interfaceCodes = Arrays.copyOf(codes, interfaceCount);
+		interiorCells = Arrays.copyOf(interior, interiorCount);
+	}
+
+	private void refreshColumnSegments() {
+		if (segmentIndex == null) {
+			segmentIndex = new int[nx][ny];
+			segmentBounds = new int[nx][];
+			segmentMean = new float[nx][];
+		}
+		int[] bounds = new int[ny + 1];
+		int count;
+		for (int i = 0; i < nx; i++) {
+			// a non-fluid cell starts a new segment and is counted as its lower end, just like the cell at the bottom of the column
+			bounds[0] = 0;
+			count = 1;
+			for (int j = 1; j < ny; j++) {
+				if (!fluidity[i][j])
+					bounds[count++] = j;
+				segmentIndex[i][j] = count - 1;
+			}
+			bounds[count] = ny;
+			segmentBounds[i] = Arrays.copyOf(bounds, count + 1);
+			segmentMean[i] = new float[count];
+		}
+	}
+
+	private void computeSegmentMeanTemperatures() {
+		int[] bounds;
+		float[] mean;
+		float sum;
+		for (int i = 0; i < nx; i++) {
+			bounds = segmentBounds[i];
+			mean = segmentMean[i];
+			for (int s = 0; s < mean.length; s++) {
+				sum = 0;
+				for (int k = bounds[s]; k < bounds[s + 1]; k++)
+					sum += t[i][k];
+				mean[s] = sum / (bounds[s + 1] - bounds[s]);
+			}
+		}
 	}
 
 	void setGridCellSize(float deltaX, float deltaY) {
@@ -130,83 +237,63 @@ abstract class FluidSolver2D {
 		return timeStep;
 	}
 
+	// obstacle cells that are not adjacent to any fluid cell simply take the wind velocity. No other step of the solver changes them.
+	private void setObstacleInteriorVelocity(float[][] u, float[][] v) {
+		int i, j;
+		for (int cell : interiorCells) {
+			i = cell / ny;
+			j = cell % ny;
+			u[i][j] = uWind[i][j];
+			v[i][j] = vWind[i][j];
+		}
+	}
+
 	private void setObstacleVelocity(float[][] u, float[][] v) {
-		int count = 0;
+		int i, j;
+		byte code;
 		float uw, vw;
-		for (int i = 1; i < nx1; i++) {
-			for (int j = 1; j < ny1; j++) {
-				if (!fluidity[i][j]) {
-					uw = uWind[i][j];
-					vw = vWind[i][j];
-					count = 0;
-					if (fluidity[i - 1][j]) {
-						count++;
-						u[i][j] = uw - u[i - 1][j];
-						v[i][j] = vw + v[i - 1][j];
-					} else if (fluidity[i + 1][j]) {
-						count++;
-						u[i][j] = uw - u[i + 1][j];
-						v[i][j] = vw + v[i + 1][j];
-					}
-					if (fluidity[i][j - 1]) {
-						count++;
-						u[i][j] = uw + u[i][j - 1];
-						v[i][j] = vw - v[i][j - 1];
-					} else if (fluidity[i][j + 1]) {
-						count++;
-						u[i][j] = uw + u[i][j + 1];
-						v[i][j] = vw - v[i][j + 1];
-					}
-					if (count == 0) {
-						u[i][j] = uw;
-						v[i][j] = vw;
-					}
-				}
+		for (int k = 0; k < interfaceCells.length; k++) {
+			i = interfaceCells[k] / ny;
+			j = interfaceCells[k] % ny;
+			code = interfaceCodes[k];
+			uw = uWind[i][j];
+			vw = vWind[i][j];
+			if ((code & WEST) != 0) {
+				u[i][j] = uw - u[i - 1][j];
+				v[i][j] = vw + v[i - 1][j];
+			} else if ((code & EAST) != 0) {
+				u[i][j] = uw - u[i + 1][j];
+				v[i][j] = vw + v[i + 1][j];
+			}
+			if ((code & NORTH) != 0) {
+				u[i][j] = uw + u[i][j - 1];
+				v[i][j] = vw - v[i][j - 1];
+			} else if ((code & SOUTH) != 0) {
+				u[i][j] = uw + u[i][j + 1];
+				v[i][j] = vw - v[i][j + 1];
 			}
 		}
 	}
 
 	// ensure dx/dn = 0 at the boundary (the Neumann boundary condition)
 	private void setObstacleBoundary(float[][] x) {
-		for (int i = 1; i < nx1; i++) {
-			for (int j = 1; j < ny1; j++) {
-				if (!fluidity[i][j]) {
-					if (fluidity[i - 1][j]) {
-						x[i][j] = x[i - 1][j];
-					} else if (fluidity[i + 1][j]) {
-						x[i][j] = x[i + 1][j];
-					}
-					if (fluidity[i][j - 1]) {
-						x[i][j] = x[i][j - 1];
-					} else if (fluidity[i][j + 1]) {
-						x[i][j] = x[i][j + 1];
-					}
-				}
+		int i, j;
+		byte code;
+		for (int k = 0; k < interfaceCells.length; k++) {
+			i = interfaceCells[k] / ny;
+			j = interfaceCells[k] % ny;
+			code = interfaceCodes[k];
+			if ((code & WEST) != 0) {
+				x[i][j] = x[i - 1][j];
+			} else if ((code & EAST) != 0) {
+				x[i][j] = x[i + 1][j];
 			}
-		}
-	}
-
-	private float getMeanTemperature(int i, int j) {
-		int lowerBound = 0;
-		// search for the upper bound
-		for (int k = j - 1; k > 0; k--) {
-			if (!fluidity[i][k]) {
-				lowerBound = k;
-				break;
+			if ((code & NORTH) != 0) {
+				x[i][j] = x[i][j - 1];
+			} else if ((code & SOUTH) != 0) {
+				x[i][j] = x[i][j + 1];
 			}
 		}
-		int upperBound = ny;
-		for (int k = j + 1; k < ny; k++) {
-			if (!fluidity[i][k]) {
-				upperBound = k;
-				break;
-			}
-		}
-		float t0 = 0;
-		for (int k = lowerBound; k < upperBound; k++) {
-			t0 += t[i][k];
-		}
-		return t0 / (upperBound - lowerBound);
 	}
 
 	// Boussinesq approximation: density differences are sufficiently small to be neglected, except where they appear in terms multiplied by g, the acceleration due to gravity.
@@ -216,7 +303,7 @@ abstract class FluidSolver2D {
 		float t0;
 		switch (buoyancyApproximation) {
 		case Model2D.BUOYANCY_AVERAGE_ALL:
-			t0 = MathUtil.getAverage(t);
+			t0 = temperatureStatistics != null ? temperatureStatistics.getMean() : MathUtil.getAverage(t);
 			for (int i = 1; i < nx1; i++) {
 				for (int j = 1; j < ny1; j++) {
 					if (fluidity[i][j]) {
@@ -226,10 +313,11 @@ abstract class FluidSolver2D {
 			}
 			break;
 		case Model2D.BUOYANCY_AVERAGE_COLUMN:
+			computeSegmentMeanTemperatures();
 			for (int i = 1; i < nx1; i++) {
 				for (int j = 1; j < ny1; j++) {
 					if (fluidity[i][j]) {
-						t0 = getMeanTemperature(i, j);
+						t0 = segmentMean[i][segmentIndex[i][j]];
 						f[i][j] += (g - b) * t[i][j] + b * t0;
 					}
 				}
@@ -244,6 +332,8 @@ abstract class FluidSolver2D {
 
 	// Copying a two-dimensional array is very fast. Considering this, I chose clarity instead of swapping the arrays.
 	void solve(float[][] u, float[][] v) {
+		checkFluidity();
+		setObstacleInteriorVelocity(u, v);
 		if (thermalBuoyancy != 0) {
 			applyBuoyancy(v);
 		}
@@ -310,6 +400,7 @@ abstract class FluidSolver2D {
 			vorticity = new float[nx][ny];
 		if (stream == null)
 			stream = new float[nx][ny];
+		checkFluidity();
 		calculateVorticity(u, v);
 		calculateStreamFunction();
 		return stream;
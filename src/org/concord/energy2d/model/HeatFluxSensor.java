@@ -0,0 +1,127 @@
+/*
+ *   Copyright (C) 2012  The Concord Consortium, Inc.,
+ *   25 Love Lane, Concord, MA 01742
+ */
+
+package org.concord.energy2d.model;
+
+import java.awt.geom.Line2D;
+import java.io.IOException;
+
+import org.concord.energy2d.util.XmlAppender;
+
+/**
+ * A heat flux sensor measures the heat flowing across a line segment per unit depth (W/m), i.e. the integral of -k*grad(T) dot n along the segment, where the unit normal n = (y2 - y1, x1 - x2) / length. The points at which the gradient is taken and the weights of the finite differences are computed once for a position and a grid, and reused until either changes.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class HeatFluxSensor extends Sensor {
+
+	// the nodes at which the gradient is evaluated and the weights of the x and y central differences there
+	private int[] cellX = new int[0], cellY = new int[0];
+	private float[] weightX = new float[0], weightY = new float[0];
+	private int count;
+	// the line and the grid that the cached samples were computed for
+	private float x1, y1, x2, y2;
+	private int nx, ny;
+	private float deltaX, deltaY;
+
+	public HeatFluxSensor(float x1, float y1, float x2, float y2) {
+		super(new Line2D.Float(x1, y1, x2, y2));
+	}
+
+	public HeatFluxSensor duplicate(float x, float y) {
+		Line2D.Float l = (Line2D.Float) getShape();
+		float dx = x - 0.5f * (l.x1 + l.x2);
+		float dy = y - 0.5f * (l.y1 + l.y2);
+		return new HeatFluxSensor(l.x1 + dx, l.y1 + dy, l.x2 + dx, l.y2 + dy);
+	}
+
+	public void setLine(float x1, float y1, float x2, float y2) {
+		((Line2D.Float) getShape()).setLine(x1, y1, x2, y2);
+	}
+
+	public Line2D.Float getLine() {
+		return (Line2D.Float) getShape();
+	}
+
+	public boolean contains(float x, float y) {
+		Line2D.Float l = (Line2D.Float) getShape();
+		return l.ptSegDist(x, y) < 0.02 * Math.hypot(l.x2 - l.x1, l.y2 - l.y1);
+	}
+
+	/** sample the heat flux across the line and add it to the data. */
+	void measure(float[][] t, float[][] conductivity, float time, float deltaX, float deltaY) {
+		Line2D.Float l = (Line2D.Float) getShape();
+		if (l.x1 != x1 || l.y1 != y1 || l.x2 != x2 || l.y2 != y2 || t.length != nx || t[0].length != ny || deltaX != this.deltaX || deltaY != this.deltaY)
+			build(l, t.length, t[0].length, deltaX, deltaY);
+		if (count == 0)
+			return;
+		float flux = 0;
+		int i, j;
+		for (int k = 0; k < count; k++) {
+			i = cellX[k];
+			j = cellY[k];
+			flux += conductivity[i][j] * ((t[i + 1][j] - t[i - 1][j]) * weightX[k] + (t[i][j + 1] - t[i][j - 1]) * weightY[k]);
+		}
+		addData(time, flux);
+	}
+
+	private void build(Line2D.Float l, int nx, int ny, float deltaX, float deltaY) {
+		x1 = l.x1;
+		y1 = l.y1;
+		x2 = l.x2;
+		y2 = l.y2;
+		this.nx = nx;
+		this.ny = ny;
+		this.deltaX = deltaX;
+		this.deltaY = deltaY;
+		count = 0;
+		float length = (float) Math.hypot(x2 - x1, y2 - y1);
+		if (length <= 0 || nx < 3 || ny < 3)
+			return;
+		// one sample per grid cell along the line, taken at the midpoints of equal pieces
+		int n = Math.max(1, (int) Math.ceil(length / Math.min(deltaX, deltaY)));
+		if (cellX.length < n) {
+			cellX = new int[n];
+			cellY = new int[n];
+			weightX = new float[n];
+			weightY = new float[n];
+		}
+		float ds = length / n;
+		float normalX = (y2 - y1) / length;
+		float normalY = (x1 - x2) / length;
+		float s;
+		int i, j;
+		for (int k = 0; k < n; k++) {
+			s = (k + 0.5f) / n;
+			i = Math.round((x1 + s * (x2 - x1)) / deltaX);
+			j = Math.round((y1 + s * (y2 - y1)) / deltaY);
+			if (i < 0 || i >= nx || j < 0 || j >= ny)
+				continue;
+			// central differences need a neighbor on each side
+			cellX[count] = Math.max(1, Math.min(nx - 2, i));
+			cellY[count] = Math.max(1, Math.min(ny - 2, j));
+			weightX[count] = -normalX * ds / (2 * deltaX);
+			weightY[count] = -normalY * ds / (2 * deltaY);
+			count++;
+		}
+	}
+
+	public void toXml(XmlAppender out) throws IOException {
+		Line2D.Float l = (Line2D.Float) getShape();
+		out.append("<heat_flux_sensor");
+		if (isArchived())
+			out.attribute("archived", true);
+		String label = getLabel();
+		if (label != null && !label.trim().equals(""))
+			out.attribute("label", label);
+		out.attribute("x1", l.x1);
+		out.attribute("y1", l.y1);
+		out.attribute("x2", l.x2);
+		out.attribute("y2", l.y2);
+		out.append("/>\n");
+	}
+
+}
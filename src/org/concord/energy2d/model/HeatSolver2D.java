@@ -27,6 +27,8 @@ abstract class HeatSolver2D {
 	float timeStep = 0.1f;
 	float backgroundTemperature;
 	float zHeatDiffusivity;
+	// the statistics of the temperature field that the last solution produced
+	FieldStatistics statistics;
 
 	HeatSolver2D(int nx, int ny) {
 		this.nx = nx;
@@ -97,6 +99,32 @@ abstract class HeatSolver2D {
 
 	abstract void solve(boolean convective, float[][] t);
 
+	/** complete the statistics gathered from the interior nodes during the final sweep with the border nodes, which the boundary has just set */
+	void publishStatistics(float[][] t, float min, float max, double sum) {
+		float x;
+		for (int i = 0; i < nx; i++) {
+			for (int j = 0; j < ny; j += ny1) {
+				x = t[i][j];
+				if (x < min)
+					min = x;
+				if (x > max)
+					max = x;
+				sum += x;
+			}
+		}
+		for (int j = 1; j < ny1; j++) {
+			for (int i = 0; i < nx; i += nx1) {
+				x = t[i][j];
+				if (x < min)
+					min = x;
+				if (x > max)
+					max = x;
+				sum += x;
+			}
+		}
+		statistics = new FieldStatistics(min, max, sum, nx * ny);
+	}
+
 	void applyBoundary(float[][] t) {
 
 		if (boundary instanceof DirichletThermalBoundary) {
@@ -33,7 +33,13 @@ class HeatSolver2DImpl extends HeatSolver2D {
 
 		boolean solveZ = zHeatDiffusivity > 0;
 
+		// without advection, the last relaxation sweep produces the final temperatures, and hence their statistics
+		float min = Float.MAX_VALUE, max = -Float.MAX_VALUE, x;
+		double sum = 0;
+		boolean finalSweep;
+
 		for (int k = 0; k < relaxationSteps; k++) {
+			finalSweep = !convective && k == relaxationSteps - 1;
 			for (int i = 1; i < nx1; i++) {
 				for (int j = 1; j < ny1; j++) {
 					if (Float.isNaN(tb[i][j])) {
@@ -51,6 +57,14 @@ class HeatSolver2DImpl extends HeatSolver2D {
 					} else {
 						t[i][j] = tb[i][j];
 					}
+					if (finalSweep) {
+						x = t[i][j];
+						if (x < min)
+							min = x;
+						if (x > max)
+							max = x;
+						sum += x;
+					}
 				}
 			}
 			applyBoundary(t);
@@ -58,6 +72,8 @@ class HeatSolver2DImpl extends HeatSolver2D {
 
 		if (convective) {
 			advect(t);
+		} else {
+			publishStatistics(t, min, max, sum);
 		}
 
 	}
@@ -81,15 +97,25 @@ class HeatSolver2DImpl extends HeatSolver2D {
 
 		applyBoundary(t0);
 
+		// the corrector sweep produces the final temperatures, and hence their statistics
+		float min = Float.MAX_VALUE, max = -Float.MAX_VALUE, x;
+		double sum = 0;
 		for (int i = 1; i < nx1; i++) {
 			for (int j = 1; j < ny1; j++) {
 				if (fluidity[i][j]) {
 					t[i][j] = 0.5f * (t[i][j] + t0[i][j]) - 0.5f * tx * u[i][j] * (t0[i + 1][j] - t0[i - 1][j]) - 0.5f * ty * v[i][j] * (t0[i][j + 1] - t0[i][j - 1]);
 				}
+				x = t[i][j];
+				if (x < min)
+					min = x;
+				if (x > max)
+					max = x;
+				sum += x;
 			}
 		}
 
 		applyBoundary(t);
+		publishStatistics(t, min, max, sum);
 
 	}
 
@@ -12,14 +12,17 @@ import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import org.concord.energy2d.event.ManipulationEvent;
 import org.concord.energy2d.event.ManipulationListener;
 import org.concord.energy2d.event.VisualizationEvent;
 import org.concord.energy2d.event.VisualizationListener;
+import org.concord.energy2d.math.MathUtil;
 import org.concord.energy2d.math.Polygon2D;
 import org.concord.energy2d.math.Ring2D;
+import org.concord.energy2d.util.MiscUtil;
 
 /**
  * Units:
@@ -35,6 +38,10 @@ public class Model2D {
 	public final static byte BUOYANCY_AVERAGE_COLUMN = 1;
 
 	private int indexOfStep;
+	// incremented whenever the fields may have changed, so that the views can tell if what they derived from the fields is stale
+	private volatile int fieldVersion;
+	// incremented whenever the shapes of the parts or the region sensors may have changed, so that what was derived from them can be found again
+	private volatile int shapeVersion;
 	private float stopTime = -1;
 
 	private float backgroundConductivity = 10 * Constants.AIR_THERMAL_CONDUCTIVITY;
@@ -74,9 +81,22 @@ public class Model2D {
 	// fluid cell array
 	private boolean[][] fluidity;
 
+	// the index of the part in cellOwnerParts that each cell belongs to, or -1 if it belongs to none
+	private int[][] cellOwners;
+	private Part[] cellOwnerParts = new Part[0];
+
+	private EnergyBudget energyBudget;
+
+	// the statistics of the temperature field and the field version they describe
+	private volatile FieldStatistics temperatureStatistics;
+	private volatile int temperatureStatisticsVersion = -1;
+
 	private float maximumHeatCapacity = -1, minimumHeatCapacity = Float.MAX_VALUE;
 
 	private List<Thermometer> thermometers;
+	private SensorStencils sensorStencils = new SensorStencils();
+	private List<HeatFluxSensor> heatFluxSensors;
+	private List<RegionSensor> regionSensors;
 
 	private List<Part> parts;
 	private List<Photon> photons;
@@ -102,6 +122,10 @@ public class Model2D {
 
 	private boolean running;
 	private boolean notifyReset;
+	// held during a step, so that the state can be copied or replaced between two steps from another thread
+	private final Object stepLock = new Object();
+	// set when a saved state has been restored, whose power array must not be rebuilt when the model starts running
+	private boolean resumed;
 	private int viewUpdateInterval = 20;
 	private int measurementInterval = 100;
 
@@ -112,6 +136,18 @@ public class Model2D {
 	// condition flags
 	private boolean convective = true;
 
+	/*
+	 * quiescence detection: when enabled, the fluid solver is skipped while the velocity changes stay below velocityTolerance, and the heat solver is skipped while the temperature changes stay below temperatureTolerance (and nothing else drives the temperature field). A full step is still taken every quiescenceCheckInterval steps to check if the model has started to change again.
+	 */
+	private final static int QUIESCENCE_STEPS = 10;
+	private boolean quiescenceDetection;
+	private float velocityTolerance = 0.000001f;
+	private float temperatureTolerance = 0.00001f;
+	private int quiescenceCheckInterval = 50;
+	private boolean fluidQuiescent, thermalQuiescent;
+	private int quietFluidSteps, quietThermalSteps;
+	private float[][] uPrevious, vPrevious, tPrevious;
+
 	private List<VisualizationListener> visualizationListeners;
 	private List<PropertyChangeListener> propertyChangeListeners;
 	private List<ManipulationListener> manipulationListeners;
@@ -129,6 +165,7 @@ public class Model2D {
 		specificHeat = new float[nx][ny];
 		density = new float[nx][ny];
 		fluidity = new boolean[nx][ny];
+		cellOwners = new int[nx][ny];
 
 		init();
 
@@ -153,6 +190,8 @@ public class Model2D {
 
 		parts = Collections.synchronizedList(new ArrayList<Part>());
 		thermometers = Collections.synchronizedList(new ArrayList<Thermometer>());
+		heatFluxSensors = Collections.synchronizedList(new ArrayList<HeatFluxSensor>());
+		regionSensors = Collections.synchronizedList(new ArrayList<RegionSensor>());
 		photons = Collections.synchronizedList(new ArrayList<Photon>());
 
 		visualizationListeners = new ArrayList<VisualizationListener>();
@@ -179,17 +218,77 @@ public class Model2D {
 
 	public void setConvective(boolean convective) {
 		this.convective = convective;
+		wakeUp();
 	}
 
 	public boolean isConvective() {
 		return convective;
 	}
 
+	public void setQuiescenceDetection(boolean quiescenceDetection) {
+		this.quiescenceDetection = quiescenceDetection;
+		if (!quiescenceDetection) {
+			uPrevious = vPrevious = tPrevious = null;
+		}
+		wakeUp();
+	}
+
+	public boolean isQuiescenceDetection() {
+		return quiescenceDetection;
+	}
+
+	/** set the largest change of velocity (m/s) in a step below which the fluid is considered to be at rest */
+	public void setVelocityTolerance(float velocityTolerance) {
+		this.velocityTolerance = velocityTolerance;
+	}
+
+	public float getVelocityTolerance() {
+		return velocityTolerance;
+	}
+
+	/** set the largest change of temperature (centigrade) in a step below which the temperature field is considered to be in equilibrium */
+	public void setTemperatureTolerance(float temperatureTolerance) {
+		this.temperatureTolerance = temperatureTolerance;
+	}
+
+	public float getTemperatureTolerance() {
+		return temperatureTolerance;
+	}
+
+	public void setQuiescenceCheckInterval(int quiescenceCheckInterval) {
+		this.quiescenceCheckInterval = Math.max(1, quiescenceCheckInterval);
+	}
+
+	public int getQuiescenceCheckInterval() {
+		return quiescenceCheckInterval;
+	}
+
+	public boolean isFluidQuiescent() {
+		return fluidQuiescent;
+	}
+
+	public boolean isThermalQuiescent() {
+		return thermalQuiescent;
+	}
+
+	/** resume the full calculation of all the solvers. This should be called whenever the model is changed in a way that may disturb an equilibrium. */
+	public void wakeUp() {
+		fluidQuiescent = thermalQuiescent = false;
+		quietFluidSteps = quietThermalSteps = 0;
+		fieldVersion++;
+	}
+
+	/** @return a counter that changes whenever the temperature or velocity fields may have changed */
+	public int getFieldVersion() {
+		return fieldVersion;
+	}
+
 	/**
 	 * Imagine that the 2D plane is thermally coupled with a thin layer that has the background temperature
 	 */
 	public void setZHeatDiffusivity(float zHeatDiffusivity) {
 		heatSolver.zHeatDiffusivity = zHeatDiffusivity;
+		wakeUp();
 	}
 
 	public float getZHeatDiffusivity() {
@@ -198,6 +297,7 @@ public class Model2D {
 
 	public void setThermalBuoyancy(float thermalBuoyancy) {
 		fluidSolver.setThermalBuoyancy(thermalBuoyancy);
+		wakeUp();
 	}
 
 	public float getThermalBuoyancy() {
@@ -206,6 +306,7 @@ public class Model2D {
 
 	public void setBuoyancyApproximation(byte buoyancyApproximation) {
 		fluidSolver.setBuoyancyApproximation(buoyancyApproximation);
+		wakeUp();
 	}
 
 	public byte getBuoyancyApproximation() {
@@ -214,6 +315,7 @@ public class Model2D {
 
 	public void setBackgroundViscosity(float viscosity) {
 		fluidSolver.setBackgroundViscosity(viscosity);
+		wakeUp();
 	}
 
 	public float getBackgroundViscosity() {
@@ -222,6 +324,7 @@ public class Model2D {
 
 	public void setSunny(boolean sunny) {
 		this.sunny = sunny;
+		wakeUp();
 		if (sunny) {
 			radiative = true;
 		} else {
@@ -326,6 +429,7 @@ public class Model2D {
 
 	public void setThermalBoundary(ThermalBoundary b) {
 		heatSolver.setBoundary(b);
+		wakeUp();
 	}
 
 	public MassBoundary getMassBoundary() {
@@ -334,11 +438,13 @@ public class Model2D {
 
 	public void setMassBoundary(MassBoundary b) {
 		fluidSolver.setBoundary(b);
+		wakeUp();
 	}
 
 	public void setBackgroundTemperature(float backgroundTemperature) {
 		this.backgroundTemperature = backgroundTemperature;
 		heatSolver.backgroundTemperature = backgroundTemperature;
+		wakeUp();
 	}
 
 	public float getBackgroundTemperature() {
@@ -382,11 +488,12 @@ public class Model2D {
 		thermometers.add(new Thermometer(x, y));
 	}
 
-	public void addThermometer(float x, float y, String label, byte stencil) {
+	public Thermometer addThermometer(float x, float y, String label, byte stencil) {
 		Thermometer t = new Thermometer(x, y);
 		t.setLabel(label);
 		t.setStencil(stencil);
 		thermometers.add(t);
+		return t;
 	}
 
 	public List<Thermometer> getThermometers() {
@@ -411,14 +518,40 @@ public class Model2D {
 		return thermometers.get(i);
 	}
 
+	public void addHeatFluxSensor(HeatFluxSensor s) {
+		heatFluxSensors.add(s);
+	}
+
+	public List<HeatFluxSensor> getHeatFluxSensors() {
+		return heatFluxSensors;
+	}
+
+	public void addRegionSensor(RegionSensor s) {
+		if (s.getPart() != null)
+			ensureUid(s.getPart());
+		regionSensors.add(s);
+	}
+
+	public List<RegionSensor> getRegionSensors() {
+		return regionSensors;
+	}
+
 	/** Since the sensor data are erased, the index of step (and hence the clock) is also reset. */
 	public void clearSensorData() {
 		indexOfStep = 0;
-		if (thermometers == null || thermometers.isEmpty())
+		clearSensorData(thermometers);
+		clearSensorData(heatFluxSensors);
+		clearSensorData(regionSensors);
+		if (energyBudget != null)
+			energyBudget.clear();
+	}
+
+	private static void clearSensorData(List<? extends Sensor> sensors) {
+		if (sensors == null || sensors.isEmpty())
 			return;
-		synchronized (thermometers) {
-			for (Thermometer t : thermometers) {
-				t.clear();
+		synchronized (sensors) {
+			for (Sensor s : sensors) {
+				s.clear();
 			}
 		}
 	}
@@ -493,6 +626,18 @@ public class Model2D {
 		return false;
 	}
 
+	/** give the part a unique UID if it does not have one, so that it can be referred to in a saved model */
+	public void ensureUid(Part p) {
+		String uid = p.getUid();
+		if (uid != null && !uid.trim().equals(""))
+			return;
+		int i = Math.max(parts.indexOf(p), 0);
+		do {
+			uid = "part" + i++;
+		} while (isUidUsed(uid));
+		p.setUid(uid);
+	}
+
 	public Part getPart(int i) {
 		if (i < 0 || i >= parts.size())
 			return null;
@@ -510,15 +655,32 @@ public class Model2D {
 				hasPartPower = true;
 			if (p.getEmissivity() > 0)
 				radiative = true;
+			invalidateShapes();
+			wakeUp();
 		}
 	}
 
 	public void removePart(Part p) {
 		parts.remove(p);
+		// a region sensor cannot outlive the part that defines its region
+		synchronized (regionSensors) {
+			for (Iterator<RegionSensor> i = regionSensors.iterator(); i.hasNext();) {
+				if (i.next().getPart() == p)
+					i.remove();
+			}
+		}
+		invalidateShapes();
+		wakeUp();
 		checkPartPower();
 		checkPartRadiation();
 	}
 
+	/** must be called when the shape of a part or a region sensor has changed without a refresh of the material property arrays */
+	public void invalidateShapes() {
+		shapeVersion++;
+		raySolver.invalidateSunEmission();
+	}
+
 	public float getMaximumHeatCapacity() {
 		return maximumHeatCapacity;
 	}
@@ -532,6 +694,11 @@ public class Model2D {
 		boolean initial = indexOfStep == 0;
 		maximumHeatCapacity = minimumHeatCapacity = backgroundDensity * backgroundSpecificHeat;
 		float heatCapacity = 0;
+		Part[] owners;
+		synchronized (parts) {
+			owners = parts.toArray(new Part[parts.size()]);
+		}
+		Part p;
 		for (int i = 0; i < nx; i++) {
 			x = i * deltaX;
 			for (int j = 0; j < ny; j++) {
@@ -541,22 +708,24 @@ public class Model2D {
 				density[i][j] = backgroundDensity;
 				fluidity[i][j] = true;
 				uWind[i][j] = vWind[i][j] = 0;
-				synchronized (parts) {
-					for (Part p : parts) {
-						if (p.getShape().contains(x, y)) {
-							// no overlap of parts will be allowed
-							conductivity[i][j] = p.getThermalConductivity();
-							specificHeat[i][j] = p.getSpecificHeat();
-							density[i][j] = p.getDensity();
-							if (!initial && p.getConstantTemperature())
-								t[i][j] = p.getTemperature();
-							fluidity[i][j] = false;
-							if ((windSpeed = p.getWindSpeed()) != 0) {
-								uWind[i][j] = (float) (windSpeed * Math.cos(p.getWindAngle()));
-								vWind[i][j] = (float) (windSpeed * Math.sin(p.getWindAngle()));
-							}
-							break;
+				cellOwners[i][j] = -1;
+				// the parts are taken from a snapshot of the list, whose indices the cell owners refer to
+				for (int k = 0; k < owners.length; k++) {
+					p = owners[k];
+					if (p.getShape().contains(x, y)) {
+						cellOwners[i][j] = k;
+						// no overlap of parts will be allowed
+						conductivity[i][j] = p.getThermalConductivity();
+						specificHeat[i][j] = p.getSpecificHeat();
+						density[i][j] = p.getDensity();
+						if (!initial && p.getConstantTemperature())
+							t[i][j] = p.getTemperature();
+						fluidity[i][j] = false;
+						if ((windSpeed = p.getWindSpeed()) != 0) {
+							uWind[i][j] = (float) (windSpeed * Math.cos(p.getWindAngle()));
+							vWind[i][j] = (float) (windSpeed * Math.sin(p.getWindAngle()));
 						}
+						break;
 					}
 				}
 				heatCapacity = specificHeat[i][j] * density[i][j];
@@ -566,13 +735,106 @@ public class Model2D {
 					minimumHeatCapacity = heatCapacity;
 			}
 		}
+		cellOwnerParts = owners;
+		fluidSolver.refreshFluidity();
+		invalidateShapes();
+		wakeUp();
 		if (initial) {
 			setInitialTemperature();
 			setInitialVelocity();
 		}
 	}
 
+	/**
+	 * refresh all the arrays that are mapped from the parts in a single pass over the grid, which has the same effect as calling refreshPowerArray(), refreshTemperatureBoundaryArray(), refreshMaterialPropertyArrays() and setInitialTemperature() one after another, but tests every node against the shapes of the parts only once. This is meant to be called after a model is loaded.
+	 */
+	public void refreshArrays() {
+		checkPartPower();
+		float x, y, windSpeed;
+		maximumHeatCapacity = minimumHeatCapacity = backgroundDensity * backgroundSpecificHeat;
+		float heatCapacity = 0;
+		Part[] owners;
+		synchronized (parts) {
+			owners = parts.toArray(new Part[parts.size()]);
+		}
+		// like the separate passes, take the power and the boundary temperature from the first part that has them, which is not necessarily the one that owns the node if parts overlap
+		int lastPowered = -1, lastFixed = -1;
+		for (int k = 0; k < owners.length; k++) {
+			if (owners[k].getPower() != 0)
+				lastPowered = k;
+			if (owners[k].getConstantTemperature())
+				lastFixed = k;
+		}
+		Part p;
+		boolean owned, powered, fixed;
+		for (int i = 0; i < nx; i++) {
+			x = i * deltaX;
+			for (int j = 0; j < ny; j++) {
+				y = j * deltaY;
+				conductivity[i][j] = backgroundConductivity;
+				specificHeat[i][j] = backgroundSpecificHeat;
+				density[i][j] = backgroundDensity;
+				fluidity[i][j] = true;
+				uWind[i][j] = vWind[i][j] = 0;
+				q[i][j] = 0;
+				tb[i][j] = Float.NaN;
+				t[i][j] = backgroundTemperature;
+				cellOwners[i][j] = -1;
+				owned = powered = fixed = false;
+				for (int k = 0; k < owners.length; k++) {
+					if (owned && (powered || k > lastPowered) && (fixed || k > lastFixed))
+						break;
+					p = owners[k];
+					if (owned && (powered || p.getPower() == 0) && (fixed || !p.getConstantTemperature()))
+						continue;
+					if (!p.getShape().contains(x, y))
+						continue;
+					if (!owned) {
+						owned = true;
+						cellOwners[i][j] = k;
+						conductivity[i][j] = p.getThermalConductivity();
+						specificHeat[i][j] = p.getSpecificHeat();
+						density[i][j] = p.getDensity();
+						t[i][j] = p.getTemperature();
+						fluidity[i][j] = false;
+						if ((windSpeed = p.getWindSpeed()) != 0) {
+							uWind[i][j] = (float) (windSpeed * Math.cos(p.getWindAngle()));
+							vWind[i][j] = (float) (windSpeed * Math.sin(p.getWindAngle()));
+						}
+					}
+					if (!powered && p.getPower() != 0) {
+						powered = true;
+						q[i][j] = p.getPower();
+					}
+					if (!fixed && p.getConstantTemperature()) {
+						fixed = true;
+						tb[i][j] = p.getTemperature();
+					}
+				}
+				heatCapacity = specificHeat[i][j] * density[i][j];
+				if (maximumHeatCapacity < heatCapacity)
+					maximumHeatCapacity = heatCapacity;
+				if (minimumHeatCapacity > heatCapacity)
+					minimumHeatCapacity = heatCapacity;
+			}
+		}
+		cellOwnerParts = owners;
+		fluidSolver.refreshFluidity();
+		invalidateShapes();
+		if (indexOfStep == 0)
+			setInitialVelocity();
+		wakeUp();
+		clearSensorData();
+	}
+
 	public void refreshPowerArray() {
+		wakeUp();
+		mapPowerArray();
+	}
+
+	/* the solver refreshes the power array periodically for the photons, which is not a change of the model that disturbs an equilibrium, so it does not wake the solvers up */
+	private void mapPowerArray() {
+		resumed = false;
 		checkPartPower();
 		float x, y;
 		for (int i = 0; i < nx; i++) {
@@ -596,6 +858,7 @@ public class Model2D {
 	}
 
 	public void refreshTemperatureBoundaryArray() {
+		wakeUp();
 		float x, y;
 		for (int i = 0; i < nx; i++) {
 			x = i * deltaX;
@@ -616,8 +879,20 @@ public class Model2D {
 
 	/** get the total thermal energy stored in this part */
 	public float getThermalEnergy(Part p) {
-		float x, y;
 		float energy = 0;
+		for (int k = 0; k < cellOwnerParts.length; k++) {
+			if (cellOwnerParts[k] == p) {
+				for (int i = 0; i < nx; i++) {
+					for (int j = 0; j < ny; j++) {
+						if (cellOwners[i][j] == k)
+							energy += t[i][j] * density[i][j] * specificHeat[i][j];
+					}
+				}
+				return energy * deltaX * deltaY;
+			}
+		}
+		// the part has not been mapped onto the grid yet
+		float x, y;
 		for (int i = 0; i < nx; i++) {
 			x = i * deltaX;
 			for (int j = 0; j < ny; j++) {
@@ -643,7 +918,13 @@ public class Model2D {
 	public void clear() {
 		parts.clear();
 		photons.clear();
+		closeArchives(thermometers);
+		closeArchives(heatFluxSensors);
+		closeArchives(regionSensors);
 		thermometers.clear();
+		heatFluxSensors.clear();
+		regionSensors.clear();
+		invalidateShapes();
 		maximumHeatCapacity = -1;
 		minimumHeatCapacity = Float.MAX_VALUE;
 	}
@@ -691,17 +972,25 @@ public class Model2D {
 				}
 			}
 		}
+		wakeUp();
 		clearSensorData();
 	}
 
 	public void run() {
 		checkPartPower();
 		checkPartRadiation();
-		refreshPowerArray();
+		// the power array of a restored state holds the energy the photons have deposited since the last emission
+		if (resumed)
+			resumed = false;
+		else
+			refreshPowerArray();
 		if (!running) {
 			running = true;
-			while (running)
-				nextStep();
+			while (running) {
+				synchronized (stepLock) {
+					nextStep();
+				}
+			}
 			if (notifyReset) {
 				indexOfStep = 0;
 				reallyReset();
@@ -727,6 +1016,8 @@ public class Model2D {
 	}
 
 	private void reallyReset() {
+		resumed = false;
+		wakeUp();
 		setInitialTemperature();
 		setInitialVelocity();
 		photons.clear();
@@ -771,24 +1062,86 @@ public class Model2D {
 		}
 		if (radiative) {
 			if (indexOfStep % photonEmissionInterval == 0) {
-				refreshPowerArray();
+				mapPowerArray();
 				if (sunny)
 					raySolver.sunShine(photons, parts);
 				raySolver.radiate(this);
 			}
 			raySolver.solve(this);
 		}
-		if (convective) {
+		// when quiescence detection is off, every step is a full step
+		boolean fullStep = !quiescenceDetection || indexOfStep % quiescenceCheckInterval == 0;
+		if (convective && (fullStep || !fluidQuiescent)) {
+			if (quiescenceDetection) {
+				uPrevious = copyOf(u, uPrevious);
+				vPrevious = copyOf(v, vPrevious);
+			}
+			fluidSolver.setTemperatureStatistics(getTemperatureStatistics());
 			fluidSolver.solve(u, v);
+			if (quiescenceDetection) {
+				float change = Math.max(MathUtil.getMaximumDifference(u, uPrevious), MathUtil.getMaximumDifference(v, vPrevious));
+				if (change < velocityTolerance) {
+					fluidQuiescent = ++quietFluidSteps >= QUIESCENCE_STEPS;
+				} else {
+					wakeUp();
+				}
+			}
 		}
-		heatSolver.solve(convective, t);
+		// photons deposit power at every step, and a moving fluid keeps carrying heat around
+		boolean heatSolved = false;
+		if (fullStep || !thermalQuiescent || radiative || (convective && !fluidQuiescent)) {
+			heatSolved = true;
+			if (quiescenceDetection)
+				tPrevious = copyOf(t, tPrevious);
+			heatSolver.solve(convective, t);
+			if (quiescenceDetection) {
+				if (MathUtil.getMaximumDifference(t, tPrevious) < temperatureTolerance) {
+					thermalQuiescent = ++quietThermalSteps >= QUIESCENCE_STEPS;
+				} else {
+					thermalQuiescent = false;
+					quietThermalSteps = 0;
+				}
+			}
+		}
+		EnergyBudget budget = energyBudget;
+		if (budget != null)
+			budget.update(indexOfStep % measurementInterval == 0);
 		if (indexOfStep % measurementInterval == 0) {
 			takeMeasurement();
 		}
 		if (indexOfStep % viewUpdateInterval == 0) {
+			flushMeasurements();
 			notifyVisualizationListeners();
 		}
 		indexOfStep++;
+		// only the heat solver changes the temperature field during a step, so the statistics still hold if it did not run
+		boolean statisticsValid = temperatureStatisticsVersion == fieldVersion;
+		fieldVersion++;
+		if (heatSolved) {
+			temperatureStatistics = heatSolver.statistics;
+			temperatureStatisticsVersion = fieldVersion;
+		} else if (statisticsValid) {
+			temperatureStatisticsVersion = fieldVersion;
+		}
+	}
+
+	/** return the minimum, maximum, mean and sum of the temperature field, which come with the step that produced it unless the field has been changed otherwise since then */
+	public FieldStatistics getTemperatureStatistics() {
+		int version = fieldVersion;
+		FieldStatistics s = temperatureStatistics;
+		if (s == null || temperatureStatisticsVersion != version) {
+			s = FieldStatistics.compute(t);
+			temperatureStatistics = s;
+			temperatureStatisticsVersion = version;
+		}
+		return s;
+	}
+
+	private float[][] copyOf(float[][] src, float[][] dst) {
+		if (dst == null)
+			dst = new float[nx][ny];
+		MiscUtil.copy(dst, src);
+		return dst;
 	}
 
 	public void setViewUpdateInterval(int viewUpdateInterval) {
@@ -811,10 +1164,79 @@ public class Model2D {
 		return indexOfStep * heatSolver.getTimeStep();
 	}
 
+	public int getIndexOfStep() {
+		return indexOfStep;
+	}
+
+	/** @return a copy of the state of the model, taken between two steps if it is running */
+	public ModelState captureState() {
+		ModelState s = new ModelState();
+		synchronized (stepLock) {
+			s.nx = nx;
+			s.ny = ny;
+			s.indexOfStep = indexOfStep;
+			s.t = ModelState.copy(t);
+			s.u = ModelState.copy(u);
+			s.v = ModelState.copy(v);
+			s.q = ModelState.copy(q);
+			s.tb = ModelState.copy(tb);
+			s.t0 = ModelState.copy(heatSolver.t0);
+			s.u0 = ModelState.copy(fluidSolver.u0);
+			s.v0 = ModelState.copy(fluidSolver.v0);
+			s.fluidQuiescent = fluidQuiescent;
+			s.thermalQuiescent = thermalQuiescent;
+			s.quietFluidSteps = quietFluidSteps;
+			s.quietThermalSteps = quietThermalSteps;
+			s.statistics = temperatureStatisticsVersion == fieldVersion ? temperatureStatistics : null;
+			s.setPhotons(photons);
+			s.setSeries(thermometers, heatFluxSensors, regionSensors);
+		}
+		return s;
+	}
+
+	/**
+	 * restore a state captured from a model with the same setup, so that running the model continues exactly where the state was captured. This should be called after the setup has been loaded and while the model is not running.
+	 */
+	public void restoreState(ModelState s) {
+		if (s.nx != nx || s.ny != ny)
+			throw new IllegalArgumentException("grid size does not match: " + s.nx + " x " + s.ny);
+		// the histories are matched to the sensors by their order, which only works if the sensors are the same
+		if (!s.hasSensors(thermometers.size(), heatFluxSensors.size(), regionSensors.size()))
+			throw new IllegalArgumentException("sensors do not match: " + s.thermometerCount + " thermometers, " + s.heatFluxSensorCount + " heat flux sensors, " + s.regionSensorCount + " region sensors");
+		synchronized (stepLock) {
+			MiscUtil.copy(t, s.t);
+			MiscUtil.copy(u, s.u);
+			MiscUtil.copy(v, s.v);
+			MiscUtil.copy(q, s.q);
+			MiscUtil.copy(tb, s.tb);
+			MiscUtil.copy(heatSolver.t0, s.t0);
+			MiscUtil.copy(fluidSolver.u0, s.u0);
+			MiscUtil.copy(fluidSolver.v0, s.v0);
+			s.getPhotons(photons);
+			s.getSeries(thermometers, heatFluxSensors, regionSensors);
+			indexOfStep = s.indexOfStep;
+			// the fields have changed, but not in a way that disturbs an equilibrium the state was in
+			fieldVersion++;
+			fluidQuiescent = s.fluidQuiescent;
+			thermalQuiescent = s.thermalQuiescent;
+			quietFluidSteps = s.quietFluidSteps;
+			quietThermalSteps = s.quietThermalSteps;
+			if (s.statistics != null) {
+				temperatureStatistics = s.statistics;
+				temperatureStatisticsVersion = fieldVersion;
+			}
+			checkPartRadiation();
+			resumed = true;
+		}
+		flushMeasurements();
+		notifyVisualizationListeners();
+	}
+
 	public void setTimeStep(float timeStep) {
 		notifyPropertyChangeListeners("Time step", getTimeStep(), timeStep);
 		heatSolver.setTimeStep(timeStep);
 		fluidSolver.setTimeStep(timeStep);
+		wakeUp();
 	}
 
 	public float getTimeStep() {
@@ -823,6 +1245,7 @@ public class Model2D {
 
 	public void setTemperature(float[][] t) {
 		this.t = t;
+		wakeUp();
 	}
 
 	public float getTemperatureAt(float x, float y) {
@@ -843,6 +1266,7 @@ public class Model2D {
 		if (j < 0)
 			return;
 		t[i][j] = temperature;
+		wakeUp();
 	}
 
 	public void changeTemperatureAt(float x, float y, float increment) {
@@ -853,6 +1277,7 @@ public class Model2D {
 		if (j < 0)
 			return;
 		t[i][j] += increment;
+		wakeUp();
 	}
 
 	float getAverageTemperatureAt(float x, float y) {
@@ -951,79 +1376,81 @@ public class Model2D {
 		return conductivity;
 	}
 
+	float[][] getPowerArray() {
+		return q;
+	}
+
+	float[][] getTemperatureBoundaryArray() {
+		return tb;
+	}
+
+	int[][] getCellOwners() {
+		return cellOwners;
+	}
+
+	Part[] getCellOwnerParts() {
+		return cellOwnerParts;
+	}
+
+	/** turn on or off the energy budget, which costs an extra pass over the grid at every step */
+	public void setEnergyBudgetOn(boolean b) {
+		if (b) {
+			if (energyBudget == null)
+				energyBudget = new EnergyBudget(this);
+		} else {
+			energyBudget = null;
+		}
+	}
+
+	public boolean isEnergyBudgetOn() {
+		return energyBudget != null;
+	}
+
+	/** return the energy budget, or null if it is off */
+	public EnergyBudget getEnergyBudget() {
+		return energyBudget;
+	}
+
+	// release the files of the sensors that are about to be removed
+	private static void closeArchives(List<? extends Sensor> sensors) {
+		synchronized (sensors) {
+			for (Sensor s : sensors)
+				s.setArchived(false);
+		}
+	}
+
+	// notify the listeners of the sensors of all the samples taken since the last visualization update at once
+	private void flushMeasurements() {
+		flushMeasurements(thermometers);
+		flushMeasurements(heatFluxSensors);
+		flushMeasurements(regionSensors);
+	}
+
+	private static void flushMeasurements(List<? extends Sensor> sensors) {
+		if (!sensors.isEmpty()) {
+			synchronized (sensors) {
+				for (Sensor s : sensors)
+					s.flushMeasurements();
+			}
+		}
+	}
+
 	private void takeMeasurement() {
 		if (!thermometers.isEmpty()) {
-			int ix, iy;
 			synchronized (thermometers) {
-				for (Thermometer m : thermometers) {
-					ix = Math.round(m.getX() / deltaX);
-					iy = Math.round(m.getY() / deltaY);
-					if (ix >= 0 && ix < nx && iy >= 0 && iy < ny) {
-						switch (m.getStencil()) {
-						case Thermometer.ONE_POINT:
-							m.addData(getTime(), t[ix][iy]);
-							break;
-						case Thermometer.FIVE_POINT:
-							float temp = t[ix][iy];
-							int count = 1;
-							if (ix > 0) {
-								temp += t[ix - 1][iy];
-								count++;
-							}
-							if (ix < nx - 1) {
-								temp += t[ix + 1][iy];
-								count++;
-							}
-							if (iy > 0) {
-								temp += t[ix][iy - 1];
-								count++;
-							}
-							if (iy < ny - 1) {
-								temp += t[ix][iy + 1];
-								count++;
-							}
-							m.addData(getTime(), temp / count);
-							break;
-						case Thermometer.NINE_POINT:
-							temp = t[ix][iy];
-							count = 1;
-							if (ix > 0) {
-								temp += t[ix - 1][iy];
-								count++;
-							}
-							if (ix < nx - 1) {
-								temp += t[ix + 1][iy];
-								count++;
-							}
-							if (iy > 0) {
-								temp += t[ix][iy - 1];
-								count++;
-							}
-							if (iy < ny - 1) {
-								temp += t[ix][iy + 1];
-								count++;
-							}
-							if (ix > 0 && iy > 0) {
-								temp += t[ix - 1][iy - 1];
-								count++;
-							}
-							if (ix > 0 && iy < ny - 1) {
-								temp += t[ix - 1][iy + 1];
-								count++;
-							}
-							if (ix < nx - 1 && iy > 0) {
-								temp += t[ix + 1][iy - 1];
-								count++;
-							}
-							if (ix < nx - 1 && iy < ny - 1) {
-								temp += t[ix + 1][iy + 1];
-								count++;
-							}
-							m.addData(getTime(), temp / count);
-							break;
-						}
-					}
-				}
+				sensorStencils.measure(thermometers, t, getTime(), deltaX, deltaY);
+			}
+		}
+		if (!heatFluxSensors.isEmpty()) {
+			synchronized (heatFluxSensors) {
+				for (HeatFluxSensor s : heatFluxSensors)
+					s.measure(t, conductivity, getTime(), deltaX, deltaY);
+			}
+		}
+		if (!regionSensors.isEmpty()) {
+			synchronized (regionSensors) {
+				for (RegionSensor s : regionSensors)
+					s.measure(t, density, specificHeat, getTime(), deltaX, deltaY, shapeVersion);
 			}
 		}
 	}
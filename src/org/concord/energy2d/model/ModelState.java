@@ -0,0 +1,255 @@
+/*
+ *   Copyright (C) 2012  The Concord Consortium, Inc.,
+ *   25 Love Lane, Concord, MA 01742
+ */
+
+package org.concord.energy2d.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+/**
+ * A copy of everything that changes while a model runs: the fields, the arrays the solvers carry from one step to the next, the photons, the step index, the quiescence state and the sensor histories. The setup of the model (its parameters, parts and sensors) is not included, so a state can only be restored to a model with the same setup. A state is written as little-endian blocks through a channel and read back from a byte buffer, which can be a memory map of the file.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public final class ModelState {
+
+	// x, y, vx, vy, energy and speed of a photon
+	private final static int PHOTON_SIZE = 6;
+	private final static int BUFFER_SIZE = 1 << 16;
+
+	int nx, ny;
+	int indexOfStep;
+	float[][] t, u, v, q, tb, t0, u0, v0;
+	boolean fluidQuiescent, thermalQuiescent;
+	int quietFluidSteps, quietThermalSteps;
+	FieldStatistics statistics;
+	float[] photons;
+	int thermometerCount, heatFluxSensorCount, regionSensorCount;
+	// the times and the values of the histories of the thermometers, the heat flux sensors and the region sensors, in this order, with the minimum and the maximum following the data of a region sensor
+	float[][][] series;
+
+	ModelState() {
+	}
+
+	public int getIndexOfStep() {
+		return indexOfStep;
+	}
+
+	static float[][] copy(float[][] src) {
+		float[][] dst = new float[src.length][];
+		for (int i = 0; i < src.length; i++)
+			dst[i] = src[i].clone();
+		return dst;
+	}
+
+	void setPhotons(List<Photon> list) {
+		synchronized (list) {
+			photons = new float[list.size() * PHOTON_SIZE];
+			int k = 0;
+			for (Photon p : list) {
+				photons[k++] = p.getX();
+				photons[k++] = p.getY();
+				photons[k++] = p.getVx();
+				photons[k++] = p.getVy();
+				photons[k++] = p.getEnergy();
+				photons[k++] = p.getSpeed();
+			}
+		}
+	}
+
+	void getPhotons(List<Photon> list) {
+		synchronized (list) {
+			list.clear();
+			Photon p;
+			for (int k = 0; k < photons.length; k += PHOTON_SIZE) {
+				p = new Photon(photons[k], photons[k + 1], photons[k + 4], photons[k + 5]);
+				p.setVx(photons[k + 2]);
+				p.setVy(photons[k + 3]);
+				list.add(p);
+			}
+		}
+	}
+
+	/** @return true if this state has the histories of the given numbers of sensors */
+	public boolean hasSensors(int thermometerCount, int heatFluxSensorCount, int regionSensorCount) {
+		return this.thermometerCount == thermometerCount && this.heatFluxSensorCount == heatFluxSensorCount && this.regionSensorCount == regionSensorCount;
+	}
+
+	void setSeries(List<Thermometer> thermometers, List<HeatFluxSensor> heatFluxSensors, List<RegionSensor> regionSensors) {
+		synchronized (thermometers) {
+			synchronized (heatFluxSensors) {
+				synchronized (regionSensors) {
+					thermometerCount = thermometers.size();
+					heatFluxSensorCount = heatFluxSensors.size();
+					regionSensorCount = regionSensors.size();
+					series = new float[thermometerCount + heatFluxSensorCount + 3 * regionSensorCount][][];
+					int k = 0;
+					for (Thermometer s : thermometers)
+						series[k++] = s.getData().getSnapshot();
+					for (HeatFluxSensor s : heatFluxSensors)
+						series[k++] = s.getData().getSnapshot();
+					for (RegionSensor s : regionSensors) {
+						series[k++] = s.getData().getSnapshot();
+						series[k++] = s.getMinimumData().getSnapshot();
+						series[k++] = s.getMaximumData().getSnapshot();
+					}
+				}
+			}
+		}
+	}
+
+	/* replace the histories of the sensors that this state has histories for */
+	void getSeries(List<Thermometer> thermometers, List<HeatFluxSensor> heatFluxSensors, List<RegionSensor> regionSensors) {
+		synchronized (thermometers) {
+			for (int i = 0, n = Math.min(thermometerCount, thermometers.size()); i < n; i++)
+				restore(thermometers.get(i), series[i]);
+		}
+		synchronized (heatFluxSensors) {
+			for (int i = 0, n = Math.min(heatFluxSensorCount, heatFluxSensors.size()); i < n; i++)
+				restore(heatFluxSensors.get(i), series[thermometerCount + i]);
+		}
+		synchronized (regionSensors) {
+			int k = thermometerCount + heatFluxSensorCount;
+			RegionSensor s;
+			for (int i = 0, n = Math.min(regionSensorCount, regionSensors.size()); i < n; i++) {
+				s = regionSensors.get(i);
+				restore(s, series[k++]);
+				restore(s.getMinimumData(), series[k++]);
+				restore(s.getMaximumData(), series[k++]);
+			}
+		}
+	}
+
+	private static void restore(Sensor s, float[][] data) {
+		s.clear();
+		for (int i = 0; i < data[0].length; i++)
+			s.addData(data[0][i], data[1][i]);
+	}
+
+	private static void restore(TimeSeries s, float[][] data) {
+		s.clear();
+		for (int i = 0; i < data[0].length; i++)
+			s.add(data[0][i], data[1][i]);
+	}
+
+	/** write this state to the channel in little-endian order */
+	public void write(WritableByteChannel channel) throws IOException {
+		ByteBuffer b = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		b.putInt(nx).putInt(ny).putInt(indexOfStep);
+		b.put((byte) (fluidQuiescent ? 1 : 0)).put((byte) (thermalQuiescent ? 1 : 0));
+		b.putInt(quietFluidSteps).putInt(quietThermalSteps);
+		if (statistics == null) {
+			b.put((byte) 0);
+		} else {
+			b.put((byte) 1);
+			b.putFloat(statistics.getMinimum()).putFloat(statistics.getMaximum()).putDouble(statistics.getSum()).putInt(statistics.getCount());
+		}
+		for (float[][] f : new float[][][] { t, u, v, q, tb, t0, u0, v0 }) {
+			for (float[] a : f)
+				put(channel, b, a);
+		}
+		flush(channel, b, 4);
+		b.putInt(photons.length / PHOTON_SIZE);
+		put(channel, b, photons);
+		flush(channel, b, 16);
+		b.putInt(thermometerCount).putInt(heatFluxSensorCount).putInt(regionSensorCount);
+		for (float[][] s : series) {
+			flush(channel, b, 4);
+			b.putInt(s[0].length);
+			put(channel, b, s[0]);
+			put(channel, b, s[1]);
+		}
+		flush(channel, b, BUFFER_SIZE);
+	}
+
+	/* write out the buffer if it has less room than needed */
+	private static void flush(WritableByteChannel channel, ByteBuffer b, int room) throws IOException {
+		if (b.remaining() >= room)
+			return;
+		b.flip();
+		while (b.hasRemaining())
+			channel.write(b);
+		b.clear();
+	}
+
+	private static void put(WritableByteChannel channel, ByteBuffer b, float[] a) throws IOException {
+		int i = 0, n;
+		while (i < a.length) {
+			flush(channel, b, 4);
+			n = Math.min(a.length - i, b.remaining() >> 2);
+			b.asFloatBuffer().put(a, i, n);
+			b.position(b.position() + (n << 2));
+			i += n;
+		}
+	}
+
+	/** read a state from the buffer, starting at its position and leaving the position after the state */
+	public static ModelState read(ByteBuffer b) throws IOException {
+		b.order(ByteOrder.LITTLE_ENDIAN);
+		ModelState s = new ModelState();
+		s.nx = b.getInt();
+		s.ny = b.getInt();
+		if (s.nx <= 0 || s.ny <= 0)
+			throw new IOException("Illegal grid size: " + s.nx + " x " + s.ny);
+		s.indexOfStep = b.getInt();
+		s.fluidQuiescent = b.get() != 0;
+		s.thermalQuiescent = b.get() != 0;
+		s.quietFluidSteps = b.getInt();
+		s.quietThermalSteps = b.getInt();
+		if (b.get() != 0)
+			s.statistics = new FieldStatistics(b.getFloat(), b.getFloat(), b.getDouble(), b.getInt());
+		s.t = getField(b, s.nx, s.ny);
+		s.u = getField(b, s.nx, s.ny);
+		s.v = getField(b, s.nx, s.ny);
+		s.q = getField(b, s.nx, s.ny);
+		s.tb = getField(b, s.nx, s.ny);
+		s.t0 = getField(b, s.nx, s.ny);
+		s.u0 = getField(b, s.nx, s.ny);
+		s.v0 = getField(b, s.nx, s.ny);
+		s.photons = getArray(b, getLength(b, PHOTON_SIZE * 4) * PHOTON_SIZE);
+		s.thermometerCount = getLength(b, 4);
+		s.heatFluxSensorCount = getLength(b, 4);
+		s.regionSensorCount = getLength(b, 4);
+		s.series = new float[s.thermometerCount + s.heatFluxSensorCount + 3 * s.regionSensorCount][][];
+		int n;
+		for (int k = 0; k < s.series.length; k++) {
+			n = getLength(b, 8);
+			s.series[k] = new float[][] { getArray(b, n), getArray(b, n) };
+		}
+		return s;
+	}
+
+	/* read a count, checking that the buffer has enough bytes left for that many items of the given size in bytes */
+	private static int getLength(ByteBuffer b, int size) throws IOException {
+		int n = b.getInt();
+		if (n < 0 || (long) n * size > b.remaining())
+			throw new IOException("Illegal length: " + n);
+		return n;
+	}
+
+	private static float[][] getField(ByteBuffer b, int nx, int ny) throws IOException {
+		if ((long) nx * ny * 4 > b.remaining())
+			throw new IOException("Truncated field");
+		float[][] f = new float[nx][ny];
+		FloatBuffer fb = b.asFloatBuffer();
+		for (int i = 0; i < nx; i++)
+			fb.get(f[i]);
+		b.position(b.position() + nx * ny * 4);
+		return f;
+	}
+
+	private static float[] getArray(ByteBuffer b, int n) {
+		float[] a = new float[n];
+		b.asFloatBuffer().get(a);
+		b.position(b.position() + n * 4);
+		return a;
+	}
+
+}
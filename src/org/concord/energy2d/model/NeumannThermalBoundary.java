@@ -5,6 +5,10 @@
 
 package org.concord.energy2d.model;
 
+import java.io.IOException;
+
+import org.concord.energy2d.util.XmlAppender;
+
 /**
  * @author Charles Xie
  * 
@@ -35,13 +39,13 @@ public class NeumannThermalBoundary implements ThermalBoundary {
 		return fluxAtBorder[side];
 	}
 
-	public String toXml() {
-		String s = "<flux_at_border upper=\"" + fluxAtBorder[UPPER] + "\"";
-		s += " lower=\"" + fluxAtBorder[LOWER] + "\"";
-		s += " left=\"" + fluxAtBorder[LEFT] + "\"";
-		s += " right=\"" + fluxAtBorder[RIGHT] + "\"";
-		s += "/>\n";
-		return s;
+	public void toXml(XmlAppender out) throws IOException {
+		out.append("<flux_at_border");
+		out.attribute("upper", fluxAtBorder[UPPER]);
+		out.attribute("lower", fluxAtBorder[LOWER]);
+		out.attribute("left", fluxAtBorder[LEFT]);
+		out.attribute("right", fluxAtBorder[RIGHT]);
+		out.append("/>\n");
 	}
 
 }
@@ -13,6 +13,8 @@ import java.awt.geom.Ellipse2D;
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.io.StringWriter;
 import java.text.DecimalFormat;
 
 import org.concord.energy2d.math.Polygon2D;
@@ -20,6 +22,7 @@ import org.concord.energy2d.math.Ring2D;
 import org.concord.energy2d.util.ColorFill;
 import org.concord.energy2d.util.FillPattern;
 import org.concord.energy2d.util.Texture;
+import org.concord.energy2d.util.XmlAppender;
 
 /**
  * Default properties set to be that of polystyrene. See http://en.wikipedia.org/wiki/Polystyrene
@@ -500,91 +503,90 @@ public class Part extends Manipulable {
 		return false;
 	}
 
-	public String toXml() {
-		String xml = "<part>";
+	public void toXml(XmlAppender out) throws IOException {
+		out.append("<part>");
 		if (getShape() instanceof Rectangle2D.Float) {
 			Rectangle2D.Float r = (Rectangle2D.Float) getShape();
-			xml += "<rectangle";
-			xml += " x=\"" + r.x + "\"";
-			xml += " y=\"" + r.y + "\"";
-			xml += " width=\"" + r.width + "\"";
-			xml += " height=\"" + r.height + "\"/>";
+			out.append("<rectangle");
+			out.attribute("x", r.x);
+			out.attribute("y", r.y);
+			out.attribute("width", r.width);
+			out.attribute("height", r.height);
+			out.append("/>");
 		} else if (getShape() instanceof Ellipse2D.Float) {
 			Ellipse2D.Float e = (Ellipse2D.Float) getShape();
-			xml += "<ellipse";
-			xml += " x=\"" + e.getCenterX() + "\"";
-			xml += " y=\"" + e.getCenterY() + "\"";
-			xml += " a=\"" + e.width + "\"";
-			xml += " b=\"" + e.height + "\"/>";
+			out.append("<ellipse");
+			out.attribute("x", e.getCenterX());
+			out.attribute("y", e.getCenterY());
+			out.attribute("a", e.width);
+			out.attribute("b", e.height);
+			out.append("/>");
 		} else if (getShape() instanceof Polygon2D) {
 			Polygon2D p = (Polygon2D) getShape();
-			xml += "<polygon count=\"" + p.getVertexCount() + "\" vertices=\"";
 			int n = p.getVertexCount();
+			out.append("<polygon");
+			out.attribute("count", n);
+			out.append(" vertices=\"");
 			Point2D.Float p2d;
 			for (int i = 0; i < n - 1; i++) {
 				p2d = p.getVertex(i);
-				xml += p2d.x + ", " + p2d.y + ", ";
+				out.append(p2d.x).append(", ").append(p2d.y).append(", ");
 			}
 			p2d = p.getVertex(n - 1);
-			xml += p2d.x + ", " + p2d.y + "\"/>\n";
+			out.append(p2d.x).append(", ").append(p2d.y).append("\"/>\n");
 		} else if (getShape() instanceof Ring2D) {
 			Ring2D ring = (Ring2D) getShape();
-			xml += "<ring";
-			xml += " x=\"" + ring.getX() + "\"";
-			xml += " y=\"" + ring.getY() + "\"";
-			xml += " inner=\"" + ring.getInnerDiameter() + "\"";
-			xml += " outer=\"" + ring.getOuterDiameter() + "\"/>";
+			out.append("<ring");
+			out.attribute("x", ring.getX());
+			out.attribute("y", ring.getY());
+			out.attribute("inner", ring.getInnerDiameter());
+			out.attribute("outer", ring.getOuterDiameter());
+			out.append("/>");
 		}
-		xml += "<thermal_conductivity>" + thermalConductivity + "</thermal_conductivity>\n";
-		xml += "<specific_heat>" + specificHeat + "</specific_heat>\n";
-		xml += "<density>" + density + "</density>\n";
-		xml += "<transmission>" + transmission + "</transmission>\n";
-		xml += "<reflection>" + reflection + "</reflection>\n";
-		xml += "<absorption>" + absorption + "</absorption>\n";
-		xml += "<emissivity>" + emissivity + "</emissivity>\n";
-		xml += "<temperature>" + temperature + "</temperature>\n";
-		xml += "<constant_temperature>" + constantTemperature + "</constant_temperature>\n";
+		out.element("thermal_conductivity", thermalConductivity);
+		out.element("specific_heat", specificHeat);
+		out.element("density", density);
+		out.element("transmission", transmission);
+		out.element("reflection", reflection);
+		out.element("absorption", absorption);
+		out.element("emissivity", emissivity);
+		out.element("temperature", temperature);
+		out.element("constant_temperature", constantTemperature);
 		if (power != 0)
-			xml += "<power>" + power + "</power>\n";
+			out.element("power", power);
 		if (windSpeed > 0) {
-			xml += "<wind_speed>" + windSpeed + "</wind_speed>\n";
+			out.element("wind_speed", windSpeed);
 		}
 		if (windAngle != 0) {
-			xml += "<wind_angle>" + windAngle + "</wind_angle>\n";
+			out.element("wind_angle", windAngle);
 		}
 		if (getUid() != null && !getUid().trim().equals(""))
-			xml += "<uid>" + getUid() + "</uid>\n";
+			out.element("uid", getUid());
 		if (fillPattern instanceof ColorFill) {
 			Color color = ((ColorFill) fillPattern).getColor();
 			if (!color.equals(Color.gray)) {
-				xml += "<color>" + Integer.toHexString(0x00ffffff & color.getRGB()) + "</color>\n";
+				out.element("color", Integer.toHexString(0x00ffffff & color.getRGB()));
 			}
 		} else if (fillPattern instanceof Texture) {
 			Texture pf = (Texture) fillPattern;
-			xml += "<texture>";
-			int i = pf.getForeground();
-			xml += "<texture_fg>" + Integer.toString(i, 16) + "</texture_fg>\n";
-			i = pf.getBackground();
-			xml += "<texture_bg>" + Integer.toString(i, 16) + "</texture_bg>\n";
-			i = ((Texture) fillPattern).getStyle();
-			xml += "<texture_style>" + i + "</texture_style>\n";
-			i = pf.getCellWidth();
-			xml += "<texture_width>" + i + "</texture_width>\n";
-			i = pf.getCellHeight();
-			xml += "<texture_height>" + i + "</texture_height>\n";
-			xml += "</texture>\n";
+			out.append("<texture>");
+			out.element("texture_fg", Integer.toString(pf.getForeground(), 16));
+			out.element("texture_bg", Integer.toString(pf.getBackground(), 16));
+			out.element("texture_style", pf.getStyle());
+			out.element("texture_width", pf.getCellWidth());
+			out.element("texture_height", pf.getCellHeight());
+			out.append("</texture>\n");
 		}
 		if (!isFilled())
-			xml += "<filled>false</filled>\n";
+			out.element("filled", false);
 		String label = getLabel();
 		if (label != null && !label.trim().equals(""))
-			xml += "<label>" + label + "</label>\n";
+			out.element("label", label);
 		if (!isVisible())
-			xml += "<visible>false</visible>\n";
+			out.element("visible", false);
 		if (!isDraggable())
-			xml += "<draggable>false</draggable>\n";
-		xml += "</part>\n";
-		return xml;
+			out.element("draggable", false);
+		out.append("</part>\n");
 	}
 
 	public String getLabel(String label, Model2D model) {
@@ -631,7 +633,13 @@ public class Part extends Manipulable {
 
 	@Override
 	public String toString() {
-		return toXml();
+		StringWriter writer = new StringWriter();
+		try {
+			toXml(new XmlAppender(writer));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return writer.toString();
 	}
 
 }
@@ -32,10 +32,22 @@ public class Photon {
 		setAngle(angle);
 	}
 
+	/* reinitialize a recycled photon */
+	void reset(float x, float y, float energy, float c) {
+		this.x = x;
+		this.y = y;
+		this.energy = energy;
+		this.c = c;
+	}
+
 	public float getEnergy() {
 		return energy;
 	}
 
+	float getSpeed() {
+		return c;
+	}
+
 	private void setAngle(float angle) {
 		vx = (float) Math.cos(angle) * c;
 		vy = (float) Math.sin(angle) * c;
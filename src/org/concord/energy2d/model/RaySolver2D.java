@@ -5,8 +5,13 @@
 
 package org.concord.energy2d.model;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * This solver models the ray optics of sunlight. Reflection, refraction, and absorption are included.
@@ -16,6 +21,11 @@ import java.util.List;
  */
 class RaySolver2D {
 
+	// photons are advanced in parallel only when there are enough of them to amortize the cost of dispatching the tasks
+	private final static int MINIMUM_PHOTONS_PER_TASK = 256;
+	private final static int THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+	private static ExecutorService photonService;
+
 	private float[][] q;
 	private float deltaX, deltaY;
 	private float lx, ly, sunAngle = (float) Math.PI * 0.5f;
@@ -28,6 +38,18 @@ class RaySolver2D {
 	 */
 	private float raySpeed = .1f;
 
+	private PhotonTask[] photonTasks;
+
+	/*
+	 * the emission points of sunlight depend only on the sun angle, the ray count, the size of the domain, and the geometry of the parts. They are cached so that each emission does not have to test every candidate point against every part.
+	 */
+	private float[] emissionX, emissionY;
+	private int emissionCount;
+	private boolean emissionInvalid = true;
+
+	// dead photons are recycled for the next emission
+	private List<Photon> photonPool = new ArrayList<Photon>();
+
 	RaySolver2D(float lx, float ly) {
 		setLx(lx);
 		setLy(ly);
@@ -35,10 +57,17 @@ class RaySolver2D {
 
 	void setLx(float lx) {
 		this.lx = lx;
+		emissionInvalid = true;
 	}
 
 	void setLy(float ly) {
 		this.ly = ly;
+		emissionInvalid = true;
+	}
+
+	/** must be called when the geometry of the parts changes so that the emission points of sunlight will be recalculated */
+	void invalidateSunEmission() {
+		emissionInvalid = true;
 	}
 
 	void setSolarRaySpeed(float raySpeed) {
@@ -61,6 +90,7 @@ class RaySolver2D {
 	void setSolarRayCount(int solarRayCount) {
 		rayCount = solarRayCount;
 		rayPower = solarPowerDensity * 24 / rayCount;
+		emissionInvalid = true;
 	}
 
 	int getSolarRayCount() {
@@ -90,54 +120,156 @@ class RaySolver2D {
 		// System.out.println(photons.size());
 		if (photons.isEmpty())
 			return;
-		Photon p;
 		float timeStep = model.getTimeStep();
 		// Since a photon is emitted at a given interval, its energy
 		// has to be divided evenly for internal power generation at
 		// each second. The following factor takes this into account.
 		float factor = 1.0f / (timeStep * model.getPhotonEmissionInterval());
-		float idx = 1.0f / deltaX;
-		float idy = 1.0f / deltaY;
-		int i, j;
-		int nx = q.length - 1;
-		int ny = q[0].length - 1;
-		boolean remove;
+		Part[] parts;
+		synchronized (model.getParts()) {
+			parts = model.getParts().toArray(new Part[model.getPartCount()]);
+		}
 		synchronized (photons) {
-			for (Iterator<Photon> it = photons.iterator(); it.hasNext();) {
-				p = it.next();
+			int n = photons.size();
+			Photon[] photonArray = photons.toArray(new Photon[n]);
+			boolean[] removed = new boolean[n];
+			// the photon store is cut into contiguous stripes, one for each task. The stripe boundaries depend only on the number of photons, so the result is the same regardless of scheduling.
+			int taskCount = Math.max(1, Math.min(THREAD_COUNT, n / MINIMUM_PHOTONS_PER_TASK));
+			if (photonTasks == null || photonTasks.length < taskCount) {
+				PhotonTask[] a = new PhotonTask[taskCount];
+				for (int k = 0; k < taskCount; k++)
+					a[k] = photonTasks != null && k < photonTasks.length ? photonTasks[k] : new PhotonTask();
+				photonTasks = a;
+			}
+			int stripe = n / taskCount;
+			for (int k = 0; k < taskCount; k++)
+				photonTasks[k].set(photonArray, removed, parts, k * stripe, k == taskCount - 1 ? n : (k + 1) * stripe, timeStep);
+			if (taskCount == 1) {
+				photonTasks[0].call();
+			} else {
+				try {
+					getPhotonService().invokeAll(Arrays.asList(photonTasks).subList(0, taskCount));
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+			}
+			// reduce the deposits of all the stripes in a fixed order so that the absorbed energy does not depend on thread timing
+			for (int k = 0; k < taskCount; k++)
+				photonTasks[k].flush(factor);
+			List<Photon> survivors = new ArrayList<Photon>(n);
+			for (int k = 0; k < n; k++) {
+				if (!removed[k])
+					survivors.add(photonArray[k]);
+			}
+			if (survivors.size() < n) {
+				photons.clear();
+				photons.addAll(survivors);
+				for (int k = 0; k < n && photonPool.size() < emissionCount; k++) {
+					if (removed[k])
+						photonPool.add(photonArray[k]);
+				}
+			}
+		}
+	}
+
+	private static synchronized ExecutorService getPhotonService() {
+		if (photonService == null) {
+			photonService = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Photon Solver");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return photonService;
+	}
+
+	/*
+	 * advances a stripe of the photon store. Absorbed energy is first collected in a private deposit buffer of this task and then added to the power array by flush(), so that concurrent hits on the same cell will not overwrite each other. The parts are shared by all the tasks and only read, which relies on the hit tests of their shapes having no side effects.
+	 */
+	private class PhotonTask implements Callable<Void> {
+
+		private Photon[] photons;
+		private boolean[] removed;
+		private Part[] parts;
+		private int start, end;
+		private float timeStep;
+
+		private int[] cells = new int[64];
+		private float[] energies = new float[64];
+		private int depositCount;
+
+		void set(Photon[] photons, boolean[] removed, Part[] parts, int start, int end, float timeStep) {
+			this.photons = photons;
+			this.removed = removed;
+			this.parts = parts;
+			this.start = start;
+			this.end = end;
+			this.timeStep = timeStep;
+			depositCount = 0;
+		}
+
+		public Void call() {
+			float idx = 1.0f / deltaX;
+			float idy = 1.0f / deltaY;
+			int nx = q.length - 1;
+			int ny = q[0].length - 1;
+			int i, j;
+			Photon p;
+			for (int k = start; k < end; k++) {
+				p = photons[k];
 				p.move(timeStep);
-				if (model.getPartCount() > 0) {
-					remove = false;
-					synchronized (model.getParts()) {
-						for (Part part : model.getParts()) {
-							if (Math.abs(part.getReflection() - 1) < 0.001f) {
-								if (part.reflect(p, timeStep))
-									break;
-							} else if (Math.abs(part.getAbsorption() - 1) < 0.001f) {
-								if (part.absorb(p)) {
-									i = Math.min(nx, Math.round(p.getX() * idx));
-									j = Math.min(ny, Math.round(p.getY() * idy));
-									if (i < 0)
-										i = 0;
-									if (j < 0)
-										j = 0;
-									q[i][j] = p.getEnergy() * factor;
-									remove = true;
-									break;
-								}
-							}
+				for (Part part : parts) {
+					if (Math.abs(part.getReflection() - 1) < 0.001f) {
+						if (part.reflect(p, timeStep))
+							break;
+					} else if (Math.abs(part.getAbsorption() - 1) < 0.001f) {
+						if (part.absorb(p)) {
+							i = Math.min(nx, Math.round(p.getX() * idx));
+							j = Math.min(ny, Math.round(p.getY() * idy));
+							if (i < 0)
+								i = 0;
+							if (j < 0)
+								j = 0;
+							deposit(i * (ny + 1) + j, p.getEnergy());
+							removed[k] = true;
+							break;
 						}
 					}
-					if (remove)
-						it.remove();
 				}
+				// transparent boundary condition is assumed
+				if (!removed[k] && !p.isContained(0, lx, 0, ly))
+					removed[k] = true;
 			}
+			return null;
 		}
-		applyBoundary(photons);
+
+		private void deposit(int cell, float energy) {
+			if (depositCount == cells.length) {
+				cells = Arrays.copyOf(cells, depositCount * 2);
+				energies = Arrays.copyOf(energies, depositCount * 2);
+			}
+			cells[depositCount] = cell;
+			energies[depositCount] = energy;
+			depositCount++;
+		}
+
+		void flush(float factor) {
+			int ny = q[0].length;
+			for (int k = 0; k < depositCount; k++)
+				q[cells[k] / ny][cells[k] % ny] += energies[k] * factor;
+			depositCount = 0;
+			photons = null;
+			removed = null;
+			parts = null;
+		}
+
 	}
 
 	void setSunAngle(float sunAngle) {
 		this.sunAngle = (float) Math.PI - sunAngle;
+		emissionInvalid = true;
 	}
 
 	float getSunAngle() {
@@ -147,11 +279,34 @@ class RaySolver2D {
 	void sunShine(List<Photon> photons, List<Part> parts) {
 		if (sunAngle < 0)
 			return;
-		float s = (float) Math.abs(Math.sin(sunAngle));
-		float c = (float) Math.abs(Math.cos(sunAngle));
-		float spacing = s * ly < c * lx ? ly / c : lx / s;
-		spacing /= rayCount;
-		shootAtAngle(spacing / s, spacing / c, photons, parts);
+		if (emissionInvalid) {
+			float s = (float) Math.abs(Math.sin(sunAngle));
+			float c = (float) Math.abs(Math.cos(sunAngle));
+			float spacing = s * ly < c * lx ? ly / c : lx / s;
+			spacing /= rayCount;
+			emissionCount = 0;
+			shootAtAngle(spacing / s, spacing / c, parts);
+			emissionInvalid = false;
+		}
+		if (emissionCount == 0)
+			return;
+		float vx = (float) Math.cos(sunAngle) * raySpeed;
+		float vy = (float) Math.sin(sunAngle) * raySpeed;
+		Photon[] batch = new Photon[emissionCount];
+		int pooled = photonPool.size();
+		Photon p;
+		for (int i = 0; i < emissionCount; i++) {
+			if (pooled > 0) {
+				p = photonPool.remove(--pooled);
+				p.reset(emissionX[i], emissionY[i], rayPower, raySpeed);
+			} else {
+				p = new Photon(emissionX[i], emissionY[i], rayPower, raySpeed);
+			}
+			p.setVx(vx);
+			p.setVy(vy);
+			batch[i] = p;
+		}
+		photons.addAll(Arrays.asList(batch));
 	}
 
 	private static boolean isContained(float x, float y, List<Part> parts) {
@@ -165,7 +320,20 @@ class RaySolver2D {
 		return false;
 	}
 
-	private void shootAtAngle(float dx, float dy, List<Photon> photons, List<Part> parts) {
+	private void addEmissionPoint(float x, float y, List<Part> parts) {
+		if (isContained(x, y, parts))
+			return;
+		if (emissionX == null || emissionCount == emissionX.length) {
+			int capacity = emissionX == null ? 64 : emissionCount * 2;
+			emissionX = emissionX == null ? new float[capacity] : Arrays.copyOf(emissionX, capacity);
+			emissionY = emissionY == null ? new float[capacity] : Arrays.copyOf(emissionY, capacity);
+		}
+		emissionX[emissionCount] = x;
+		emissionY[emissionCount] = y;
+		emissionCount++;
+	}
+
+	private void shootAtAngle(float dx, float dy, List<Part> parts) {
 		int m = (int) (lx / dx);
 		int n = (int) (ly / dy);
 		float x, y;
@@ -173,64 +341,45 @@ class RaySolver2D {
 			y = 0;
 			for (int i = 1; i <= m; i++) {
 				x = dx * i;
-				if (!isContained(x, y, parts))
-					photons.add(new Photon(x, y, rayPower, sunAngle, raySpeed));
+				addEmissionPoint(x, y, parts);
 			}
 			x = 0;
 			for (int i = 0; i <= n; i++) {
 				y = dy * i;
-				if (!isContained(x, y, parts))
-					photons.add(new Photon(x, y, rayPower, sunAngle, raySpeed));
+				addEmissionPoint(x, y, parts);
 			}
 		} else if (sunAngle < 0 && sunAngle >= -0.5f * Math.PI) {
 			y = ly;
 			for (int i = 1; i <= m; i++) {
 				x = dx * i;
-				if (!isContained(x, y, parts))
-					photons.add(new Photon(x, y, rayPower, sunAngle, raySpeed));
+				addEmissionPoint(x, y, parts);
 			}
 			x = 0;
 			for (int i = 0; i <= n; i++) {
 				y = ly - dy * i;
-				if (!isContained(x, y, parts))
-					photons.add(new Photon(x, y, rayPower, sunAngle, raySpeed));
+				addEmissionPoint(x, y, parts);
 			}
 		} else if (sunAngle < Math.PI + 0.001 && sunAngle >= 0.5f * Math.PI) {
 			y = 0;
 			for (int i = 0; i <= m; i++) {
 				x = lx - dx * i;
-				if (!isContained(x, y, parts))
-					photons.add(new Photon(x, y, rayPower, sunAngle, raySpeed));
+				addEmissionPoint(x, y, parts);
 			}
 			x = lx;
 			for (int i = 1; i <= n; i++) {
 				y = dy * i;
-				if (!isContained(x, y, parts))
-					photons.add(new Photon(x, y, rayPower, sunAngle, raySpeed));
+				addEmissionPoint(x, y, parts);
 			}
 		} else if (sunAngle >= -Math.PI && sunAngle < -0.5f * Math.PI) {
 			y = ly;
 			for (int i = 0; i <= m; i++) {
 				x = lx - dx * i;
-				if (!isContained(x, y, parts))
-					photons.add(new Photon(x, y, rayPower, sunAngle, raySpeed));
+				addEmissionPoint(x, y, parts);
 			}
 			x = lx;
 			for (int i = 1; i <= n; i++) {
 				y = ly - dy * i;
-				if (!isContained(x, y, parts))
-					photons.add(new Photon(x, y, rayPower, sunAngle, raySpeed));
-			}
-		}
-	}
-
-	/* transparent boundary condition is assumed */
-	void applyBoundary(List<Photon> photons) {
-		synchronized (photons) {
-			for (Iterator<Photon> it = photons.iterator(); it.hasNext();) {
-				if (!it.next().isContained(0, lx, 0, ly)) {
-					it.remove();
-				}
+				addEmissionPoint(x, y, parts);
 			}
 		}
 	}
@@ -0,0 +1,183 @@
+/*
+ *   Copyright (C) 2012  The Concord Consortium, Inc.,
+ *   25 Love Lane, Concord, MA 01742
+ */
+
+package org.concord.energy2d.model;
+
+import java.awt.Shape;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+
+import org.concord.energy2d.math.Polygon2D;
+import org.concord.energy2d.util.XmlAppender;
+
+/**
+ * A region sensor measures the mean, the minimum and the maximum of the temperature or the thermal energy density (J/m^3) at the grid nodes inside a rectangle or a part. The nodes are found once for a region and a grid, and reused until either changes; the model tells when the shapes may have changed with a version number. The data are the means; the minima and maxima are kept in separate time series.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class RegionSensor extends Sensor {
+
+	public final static byte TEMPERATURE = 0;
+	public final static byte ENERGY = 1;
+
+	private byte quantity = TEMPERATURE;
+	// if set, the region is the shape of this part and follows it
+	private Part part;
+	private TimeSeries minimum, maximum;
+
+	private int[] cellX = new int[0], cellY = new int[0];
+	private int count;
+	// the region, the version of the shapes and the grid that the cached nodes were computed for
+	private Shape region;
+	private int shapeVersion = -1;
+	private int nx, ny;
+	private float deltaX, deltaY;
+
+	public RegionSensor(float x, float y, float w, float h) {
+		super(new Rectangle2D.Float(x, y, w, h));
+		init();
+	}
+
+	public RegionSensor(Part part) {
+		super(part.getShape());
+		this.part = part;
+		init();
+	}
+
+	private void init() {
+		minimum = new TimeSeries(getCapacity());
+		maximum = new TimeSeries(getCapacity());
+	}
+
+	public RegionSensor duplicate(float x, float y) {
+		if (part != null)
+			return new RegionSensor(part);
+		Rectangle2D.Float r = (Rectangle2D.Float) getShape();
+		return new RegionSensor(x - 0.5f * r.width, y - 0.5f * r.height, r.width, r.height);
+	}
+
+	public Shape getShape() {
+		return part != null ? part.getShape() : super.getShape();
+	}
+
+	public boolean contains(float x, float y) {
+		return getShape().contains(x, y);
+	}
+
+	public Part getPart() {
+		return part;
+	}
+
+	public void setQuantity(byte quantity) {
+		this.quantity = quantity;
+	}
+
+	public byte getQuantity() {
+		return quantity;
+	}
+
+	public TimeSeries getMinimumData() {
+		return minimum;
+	}
+
+	public TimeSeries getMaximumData() {
+		return maximum;
+	}
+
+	public void clear() {
+		minimum.clear();
+		maximum.clear();
+		super.clear();
+	}
+
+	public void setCapacity(int capacity) {
+		minimum.setCapacity(capacity);
+		maximum.setCapacity(capacity);
+		super.setCapacity(capacity);
+	}
+
+	/** sample the region and add the mean, the minimum and the maximum to the data. */
+	void measure(float[][] t, float[][] density, float[][] specificHeat, float time, float deltaX, float deltaY, int shapeVersion) {
+		Shape s = getShape();
+		if (s != region || shapeVersion != this.shapeVersion || t.length != nx || t[0].length != ny || deltaX != this.deltaX || deltaY != this.deltaY) {
+			build(s, t.length, t[0].length, deltaX, deltaY);
+			this.shapeVersion = shapeVersion;
+		}
+		if (count == 0)
+			return;
+		float sum = 0, min = Float.MAX_VALUE, max = -Float.MAX_VALUE, value;
+		int i, j;
+		boolean energy = quantity == ENERGY;
+		for (int k = 0; k < count; k++) {
+			i = cellX[k];
+			j = cellY[k];
+			value = energy ? t[i][j] * density[i][j] * specificHeat[i][j] : t[i][j];
+			sum += value;
+			if (value < min)
+				min = value;
+			if (value > max)
+				max = value;
+		}
+		minimum.add(time, min);
+		maximum.add(time, max);
+		addData(time, sum / count);
+	}
+
+	private void build(Shape s, int nx, int ny, float deltaX, float deltaY) {
+		region = s;
+		// the bounds of a polygon are rounded to integers, so they are taken from its outline instead
+		Rectangle2D bounds = s instanceof Polygon2D ? new Path2D.Float(s).getBounds2D() : s.getBounds2D();
+		this.nx = nx;
+		this.ny = ny;
+		this.deltaX = deltaX;
+		this.deltaY = deltaY;
+		count = 0;
+		// only the nodes within the bounds need to be tested; each of them is tested the same way the parts are mapped onto the grid
+		int imin = Math.max(0, (int) Math.ceil(bounds.getMinX() / deltaX));
+		int imax = Math.min(nx - 1, (int) Math.floor(bounds.getMaxX() / deltaX));
+		int jmin = Math.max(0, (int) Math.ceil(bounds.getMinY() / deltaY));
+		int jmax = Math.min(ny - 1, (int) Math.floor(bounds.getMaxY() / deltaY));
+		if (imax < imin || jmax < jmin)
+			return;
+		int n = (imax - imin + 1) * (jmax - jmin + 1);
+		if (cellX.length < n) {
+			cellX = new int[n];
+			cellY = new int[n];
+		}
+		for (int i = imin; i <= imax; i++) {
+			for (int j = jmin; j <= jmax; j++) {
+				if (s.contains(i * deltaX, j * deltaY)) {
+					cellX[count] = i;
+					cellY[count] = j;
+					count++;
+				}
+			}
+		}
+	}
+
+	public void toXml(XmlAppender out) throws IOException {
+		out.append("<region_sensor");
+		if (quantity != TEMPERATURE)
+			out.attribute("quantity", quantity);
+		if (isArchived())
+			out.attribute("archived", true);
+		String label = getLabel();
+		if (label != null && !label.trim().equals(""))
+			out.attribute("label", label);
+		if (part != null && part.getUid() != null && !part.getUid().trim().equals("")) {
+			out.attribute("part", part.getUid());
+		} else {
+			Rectangle2D r = getShape().getBounds2D();
+			out.attribute("x", (float) r.getX());
+			out.attribute("y", (float) r.getY());
+			out.attribute("width", (float) r.getWidth());
+			out.attribute("height", (float) r.getHeight());
+		}
+		out.append("/>\n");
+	}
+
+}
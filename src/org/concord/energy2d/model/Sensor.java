@@ -7,6 +7,12 @@
 package org.concord.energy2d.model;
 
 import java.awt.Shape;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.concord.energy2d.event.MeasurementEvent;
+import org.concord.energy2d.event.MeasurementListener;
 
 /**
  * @author Charles Xie
@@ -14,8 +20,88 @@ import java.awt.Shape;
  */
 public abstract class Sensor extends Manipulable {
 
+	private final static int DEFAULT_CAPACITY = 1000;
+	private TimeSeries data;
+	private List<MeasurementListener> listeners;
+	// listeners are notified of the new samples at most once per visualization update
+	private volatile boolean newData;
+
 	public Sensor(Shape shape) {
 		super(shape);
+		data = new TimeSeries(DEFAULT_CAPACITY);
+		listeners = new ArrayList<MeasurementListener>();
+	}
+
+	public void addMeasurementListener(MeasurementListener l) {
+		if (!listeners.contains(l))
+			listeners.add(l);
+	}
+
+	public void removeMeasurementListener(MeasurementListener l) {
+		listeners.remove(l);
+	}
+
+	private void notifyMeasurementListeners() {
+		newData = false;
+		if (listeners.isEmpty())
+			return;
+		MeasurementEvent e = new MeasurementEvent(this);
+		for (MeasurementListener x : listeners)
+			x.measurementTaken(e);
+	}
+
+	/** notify the listeners if samples have been added since they were last notified */
+	void flushMeasurements() {
+		if (newData)
+			notifyMeasurementListeners();
+	}
+
+	public void clear() {
+		data.clear();
+		notifyMeasurementListeners();
+	}
+
+	/** set the maximum number of samples kept, beyond which the oldest ones are discarded. This takes effect when the next sample is taken. */
+	public void setCapacity(int capacity) {
+		data.setCapacity(capacity);
+	}
+
+	public int getCapacity() {
+		return data.getCapacity();
+	}
+
+	/** keep the samples that no longer fit in memory in an archive file, or stop doing so and delete the archive */
+	public void setArchived(boolean b) {
+		SensorArchive a = data.getArchive();
+		if (b) {
+			if (a == null) {
+				try {
+					data.setArchive(SensorArchive.createTemporary());
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		} else if (a != null) {
+			data.setArchive(null);
+			a.close();
+		}
+	}
+
+	public boolean isArchived() {
+		return data.getArchive() != null;
+	}
+
+	public TimeSeries getData() {
+		return data;
+	}
+
+	public float getCurrentData() {
+		return data.getLastValue();
+	}
+
+	public void addData(float time, float value) {
+		data.add(time, value);
+		newData = true;
 	}
 
 }
@@ -0,0 +1,168 @@
+/*
+ *   Copyright (C) 2012  The Concord Consortium, Inc.,
+ *   25 Love Lane, Concord, MA 01742
+ */
+
+package org.concord.energy2d.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * An archive keeps the samples of a sensor that no longer fit in its time series in memory. The samples are appended to a memory-mapped file in blocks of a fixed number of floats, the times of a block followed by its values, and the time of the first sample of each block is kept in an index so that a time range can be found with a binary search. Unlike the time series, the archive is locked by the writer and the readers, which costs little because it is only read when a graph bins its samples again. Closing the archive drops the mappings, which are released when they are garbage-collected, as there is no public way to release them earlier.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class SensorArchive {
+
+	// the number of samples in a block
+	final static int BLOCK_SIZE = 1024;
+	private final static int BLOCKS_PER_REGION = 128;
+	private final static int SAMPLES_PER_REGION = BLOCK_SIZE * BLOCKS_PER_REGION;
+
+	private File file;
+	private boolean temporary;
+	private RandomAccessFile randomAccessFile;
+	private FileChannel channel;
+	// the file is mapped region by region as it grows
+	private volatile MappedByteBuffer[] regions = new MappedByteBuffer[0];
+	private volatile float[] blockTimes = new float[16];
+	// the number of samples ever appended, and the index of the first one appended after the last clearing
+	private volatile long end, start;
+
+	public SensorArchive(File file) throws IOException {
+		this.file = file;
+		randomAccessFile = new RandomAccessFile(file, "rw");
+		randomAccessFile.setLength(0);
+		channel = randomAccessFile.getChannel();
+	}
+
+	/** create an archive in a temporary file, which is deleted when the archive is closed, or on exit if it is still mapped then */
+	public static SensorArchive createTemporary() throws IOException {
+		File f = File.createTempFile("energy2d", ".sensor");
+		f.deleteOnExit();
+		SensorArchive a = new SensorArchive(f);
+		a.temporary = true;
+		return a;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public synchronized void append(float t, float v) {
+		if (channel == null)
+			return;
+		long e = end;
+		int r = (int) (e / SAMPLES_PER_REGION);
+		MappedByteBuffer[] m = regions;
+		if (r >= m.length) {
+			try {
+				MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_WRITE, (long) r * SAMPLES_PER_REGION * 8, SAMPLES_PER_REGION * 8);
+				b.order(ByteOrder.LITTLE_ENDIAN);
+				m = Arrays.copyOf(m, r + 1);
+				m[r] = b;
+				regions = m;
+			} catch (IOException ex) {
+				ex.printStackTrace();
+				return;
+			}
+		}
+		int k = (int) (e % SAMPLES_PER_REGION);
+		int base = (k / BLOCK_SIZE) * BLOCK_SIZE * 8;
+		int i = k % BLOCK_SIZE;
+		m[r].putFloat(base + 4 * i, t);
+		m[r].putFloat(base + 4 * (BLOCK_SIZE + i), v);
+		if (i == 0) {
+			int block = (int) (e / BLOCK_SIZE);
+			float[] index = blockTimes;
+			if (block >= index.length) {
+				index = Arrays.copyOf(index, index.length * 2);
+				blockTimes = index;
+			}
+			index[block] = t;
+		}
+		end = e + 1;
+	}
+
+	public synchronized void clear() {
+		start = end;
+	}
+
+	/** @return the number of archived samples */
+	public synchronized long size() {
+		return end - start;
+	}
+
+	public synchronized float getTime(long i) {
+		return get(start + i, 0);
+	}
+
+	public synchronized float getValue(long i) {
+		return get(start + i, BLOCK_SIZE);
+	}
+
+	private float get(long index, int offset) {
+		int k = (int) (index % SAMPLES_PER_REGION);
+		return regions[(int) (index / SAMPLES_PER_REGION)].getFloat((k / BLOCK_SIZE) * BLOCK_SIZE * 8 + 4 * (offset + k % BLOCK_SIZE));
+	}
+
+	/**
+	 * copy the archived samples whose times are within [t0, t1] into the arrays, as many as they can hold, and return the number copied.
+	 */
+	public synchronized int read(float t0, float t1, float[] time, float[] value) {
+		long s = start;
+		long e = end;
+		if (e <= s)
+			return 0;
+		// find the last block that starts no later than t0 with a binary search of the index
+		float[] index = blockTimes;
+		int lo = (int) (s / BLOCK_SIZE);
+		int hi = (int) ((e - 1) / BLOCK_SIZE);
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (index[mid] <= t0)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		int n = 0;
+		float t;
+		for (long i = Math.max(s, (long) lo * BLOCK_SIZE); i < e && n < time.length; i++) {
+			t = get(i, 0);
+			if (t > t1)
+				break;
+			if (t >= t0) {
+				time[n] = t;
+				value[n] = get(i, BLOCK_SIZE);
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/** release the file, and delete it if it is temporary */
+	public synchronized void close() {
+		if (channel == null)
+			return;
+		regions = new MappedByteBuffer[0];
+		end = start = 0;
+		try {
+			channel.close();
+			randomAccessFile.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		channel = null;
+		// a file that is still mapped cannot be deleted on Windows, in which case it is left to deleteOnExit
+		if (temporary)
+			file.delete();
+	}
+
+}
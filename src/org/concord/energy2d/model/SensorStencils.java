@@ -0,0 +1,142 @@
+/*
+ *   Copyright (C) 2012  The Concord Consortium, Inc.,
+ *   25 Love Lane, Concord, MA 01742
+ */
+
+package org.concord.energy2d.model;
+
+import java.util.List;
+
+/**
+ * The stencils of all the thermometers, flattened into arrays of cell indices and weights so that all of them are sampled in a single gather loop, no matter which stencil each one uses. A stencil is computed only when its sensor has moved, its stencil type has changed or the grid has changed; since the view moves a sensor by changing its shape directly, the positions it was computed for are compared with the current ones before each measurement instead of relying on the setters.
+ *
+ * @author Charles Xie
+ *
+ */
+final class SensorStencils {
+
+	// no stencil samples more cells than the nine-point one
+	private final static int MAX_POINTS = 9;
+
+	private Thermometer[] sensors = new Thermometer[0];
+	private float[] x = new float[0], y = new float[0];
+	private byte[] type = new byte[0];
+	// the stencil of sensor k occupies [offset[k], offset[k + 1]) of the cell and weight arrays, and is empty if the sensor is outside the grid
+	private int[] offset = new int[1];
+	private int[] cellX = new int[0], cellY = new int[0];
+	private float[] weight = new float[0];
+	private int nx, ny;
+	private float deltaX, deltaY;
+
+	/** sample the distribution with the stencils of the thermometers and add the results to their data. The caller must hold the lock of the list. */
+	void measure(List<Thermometer> thermometers, float[][] t, float time, float deltaX, float deltaY) {
+		int n = thermometers.size();
+		if (isStale(thermometers, t.length, t[0].length, deltaX, deltaY))
+			build(thermometers, t.length, t[0].length, deltaX, deltaY);
+		int[] cx = cellX, cy = cellY;
+		float[] w = weight;
+		int i = 0, end;
+		float sum;
+		for (int k = 0; k < n; k++) {
+			end = offset[k + 1];
+			if (i == end)
+				continue;
+			sum = 0;
+			for (; i < end; i++)
+				sum += t[cx[i]][cy[i]] * w[i];
+			sensors[k].addData(time, sum);
+		}
+	}
+
+	private boolean isStale(List<Thermometer> thermometers, int nx, int ny, float deltaX, float deltaY) {
+		if (nx != this.nx || ny != this.ny || deltaX != this.deltaX || deltaY != this.deltaY)
+			return true;
+		int n = thermometers.size();
+		if (n != sensors.length)
+			return true;
+		Thermometer m;
+		for (int k = 0; k < n; k++) {
+			m = thermometers.get(k);
+			if (m != sensors[k] || m.getX() != x[k] || m.getY() != y[k] || m.getStencil() != type[k])
+				return true;
+		}
+		return false;
+	}
+
+	private void build(List<Thermometer> thermometers, int nx, int ny, float deltaX, float deltaY) {
+		this.nx = nx;
+		this.ny = ny;
+		this.deltaX = deltaX;
+		this.deltaY = deltaY;
+		int n = thermometers.size();
+		if (sensors.length != n) {
+			sensors = new Thermometer[n];
+			x = new float[n];
+			y = new float[n];
+			type = new byte[n];
+			offset = new int[n + 1];
+		}
+		if (weight.length < n * MAX_POINTS) {
+			cellX = new int[n * MAX_POINTS];
+			cellY = new int[n * MAX_POINTS];
+			weight = new float[n * MAX_POINTS];
+		}
+		Thermometer m;
+		for (int k = 0; k < n; k++) {
+			m = thermometers.get(k);
+			sensors[k] = m;
+			x[k] = m.getX();
+			y[k] = m.getY();
+			type[k] = m.getStencil();
+			offset[k + 1] = offset[k] + computeStencil(type[k], x[k] / deltaX, y[k] / deltaY, offset[k]);
+		}
+	}
+
+	/* store the cells and weights of a stencil at the given position in grid units, and return the number of cells */
+	private int computeStencil(byte stencil, float gx, float gy, int start) {
+		int ix = Math.round(gx);
+		int iy = Math.round(gy);
+		if (ix < 0 || ix >= nx || iy < 0 || iy >= ny)
+			return 0;
+		int count = 0;
+		switch (stencil) {
+		case Thermometer.BILINEAR:
+			// interpolate between the four nodes around the point, extrapolating nothing beyond the border
+			if (nx < 2 || ny < 2)
+				break;
+			int i0 = Math.max(0, Math.min(nx - 2, (int) Math.floor(gx)));
+			int j0 = Math.max(0, Math.min(ny - 2, (int) Math.floor(gy)));
+			float fx = Math.max(0, Math.min(1, gx - i0));
+			float fy = Math.max(0, Math.min(1, gy - j0));
+			put(start, count++, i0, j0, (1 - fx) * (1 - fy));
+			put(start, count++, i0 + 1, j0, fx * (1 - fy));
+			put(start, count++, i0, j0 + 1, (1 - fx) * fy);
+			put(start, count++, i0 + 1, j0 + 1, fx * fy);
+			return count;
+		case Thermometer.FIVE_POINT:
+		case Thermometer.NINE_POINT:
+			// average the node and its neighbors that are inside the grid
+			for (int i = ix - 1; i <= ix + 1; i++) {
+				for (int j = iy - 1; j <= iy + 1; j++) {
+					if (i < 0 || i >= nx || j < 0 || j >= ny)
+						continue;
+					if (stencil == Thermometer.FIVE_POINT && i != ix && j != iy)
+						continue;
+					put(start, count++, i, j, 1);
+				}
+			}
+			for (int i = start; i < start + count; i++)
+				weight[i] = 1f / count;
+			return count;
+		}
+		put(start, 0, ix, iy, 1);
+		return 1;
+	}
+
+	private void put(int start, int k, int i, int j, float w) {
+		cellX[start + k] = i;
+		cellY[start + k] = j;
+		weight[start + k] = w;
+	}
+
+}
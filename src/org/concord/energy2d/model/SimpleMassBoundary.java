@@ -5,6 +5,10 @@
 
 package org.concord.energy2d.model;
 
+import java.io.IOException;
+
+import org.concord.energy2d.util.XmlAppender;
+
 /**
  * @author Charles Xie
  * 
@@ -34,13 +38,13 @@ public class SimpleMassBoundary implements MassBoundary {
 		return flowType[side];
 	}
 
-	public String toXml() {
-		String s = "<mass_flow_at_border upper=\"" + flowType[UPPER] + "\"";
-		s += " lower=\"" + flowType[LOWER] + "\"";
-		s += " left=\"" + flowType[LEFT] + "\"";
-		s += " right=\"" + flowType[RIGHT] + "\"";
-		s += "/>\n";
-		return s;
+	public void toXml(XmlAppender out) throws IOException {
+		out.append("<mass_flow_at_border");
+		out.attribute("upper", flowType[UPPER]);
+		out.attribute("lower", flowType[LOWER]);
+		out.attribute("left", flowType[LEFT]);
+		out.attribute("right", flowType[RIGHT]);
+		out.append("/>\n");
 	}
 
 }
@@ -6,12 +6,9 @@
 package org.concord.energy2d.model;
 
 import java.awt.geom.Rectangle2D;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.io.IOException;
 
-import org.concord.energy2d.event.MeasurementEvent;
-import org.concord.energy2d.event.MeasurementListener;
+import org.concord.energy2d.util.XmlAppender;
 
 /**
  * @author Charles Xie
@@ -20,12 +17,10 @@ import org.concord.energy2d.event.MeasurementListener;
 public class Thermometer extends Sensor {
 
 	public final static byte ONE_POINT = 1;
+	public final static byte BILINEAR = 4;
 	public final static byte FIVE_POINT = 5;
 	public final static byte NINE_POINT = 9;
 
-	private final static int MAX = 1000;
-	private List<TimedData> data;
-	private List<MeasurementListener> listeners;
 	private boolean thermostat;
 	private float thermostatTemperature = 20;
 	private byte stencil = ONE_POINT;
@@ -36,8 +31,6 @@ public class Thermometer extends Sensor {
 	public Thermometer(float x, float y) {
 		super(new Rectangle2D.Float());
 		// should have used Point2D but it is not a Shape.
-		data = Collections.synchronizedList(new ArrayList<TimedData>());
-		listeners = new ArrayList<MeasurementListener>();
 		setCenter(x, y);
 	}
 
@@ -102,59 +95,22 @@ public class Thermometer extends Sensor {
 		return r.y + 0.5f * r.height;
 	}
 
-	public void addMeasurementListener(MeasurementListener l) {
-		if (!listeners.contains(l))
-			listeners.add(l);
-	}
-
-	public void removeMeasurementListener(MeasurementListener l) {
-		listeners.remove(l);
-	}
-
-	private void notifyMeasurementListeners() {
-		if (listeners.isEmpty())
-			return;
-		MeasurementEvent e = new MeasurementEvent(this);
-		for (MeasurementListener x : listeners)
-			x.measurementTaken(e);
-	}
-
-	public void clear() {
-		data.clear();
-		notifyMeasurementListeners();
-	}
-
-	public List<TimedData> getData() {
-		return data;
-	}
-
-	public float getCurrentData() {
-		if (data.isEmpty())
-			return Float.NaN;
-		return data.get(data.size() - 1).getValue();
-	}
-
-	public void addData(float time, float temperature) {
-		data.add(new TimedData(time, temperature));
-		notifyMeasurementListeners();
-		if (data.size() > MAX)
-			data.remove(0);
-	}
-
-	public String toXml() {
-		String xml = "<thermometer";
+	public void toXml(XmlAppender out) throws IOException {
+		out.append("<thermometer");
 		if (stencil != ONE_POINT)
-			xml += " stencil=\"" + stencil + "\"";
+			out.attribute("stencil", stencil);
 		if (thermostat) {
-			xml += " thermostat=\"true\"";
-			xml += " thermostat_temperature=\"" + thermostatTemperature + "\"";
+			out.attribute("thermostat", true);
+			out.attribute("thermostat_temperature", thermostatTemperature);
 		}
+		if (isArchived())
+			out.attribute("archived", true);
 		String label = getLabel();
 		if (label != null && !label.trim().equals(""))
-			xml += " label=\"" + label + "\"";
-		xml += " x=\"" + getX() + "\"";
-		xml += " y=\"" + getY() + "\"/>";
-		return xml;
+			out.attribute("label", label);
+		out.attribute("x", getX());
+		out.attribute("y", getY());
+		out.append("/>\n");
 	}
 
 }
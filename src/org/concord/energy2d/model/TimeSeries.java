@@ -0,0 +1,242 @@
+/*
+ *   Copyright (C) 2012  The Concord Consortium, Inc.,
+ *   25 Love Lane, Concord, MA 01742
+ */
+
+package org.concord.energy2d.model;
+
+import java.util.Arrays;
+
+/**
+ * A time series stored in a ring buffer of primitive arrays with a fixed capacity, so adding a sample neither allocates an object nor shifts the older samples. There is a single writer, the simulation thread, and readers do not take any lock: the writer publishes a sample by incrementing a volatile counter after storing it, and a reader drops the samples that may have been overwritten while it was copying them by checking the counter again afterwards. A change of capacity is also left to the writer, which replaces the arrays when it adds the next sample, so that they are never replaced under it; a reader that finds them replaced after copying reads again.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class TimeSeries {
+
+	// the times and the values, with one slot more than the capacity, which the writer may be filling while the readers copy the others. They are replaced together when the capacity changes.
+	private volatile float[][] buffer;
+	// the capacity to change to when the next sample is added, or -1 if there is no change pending
+	private volatile int pendingCapacity = -1;
+	// the number of samples ever added, which is also the index of the next sample
+	private volatile long end;
+	// the index of the first sample added after the last clearing
+	private volatile long start;
+	// the index of the first sample kept by the last change of capacity, the older ones having been discarded
+	private volatile long floor;
+	// if set, the samples pushed out of the buffer are appended to it
+	private volatile SensorArchive archive;
+
+	public TimeSeries(int capacity) {
+		buffer = new float[][] { new float[capacity + 1], new float[capacity + 1] };
+	}
+
+	/** @return the capacity, including a change that has not been applied yet */
+	public int getCapacity() {
+		int p = pendingCapacity;
+		return p >= 0 ? p : buffer[0].length - 1;
+	}
+
+	/**
+	 * change the capacity, keeping the newest samples that fit and archiving the others if there is an archive. The change is made when the next sample is added, by the thread that adds it, so this can be called while the series is being written.
+	 */
+	public void setCapacity(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		pendingCapacity = capacity == buffer[0].length - 1 ? -1 : capacity;
+	}
+
+	/* called by the writer only */
+	private void applyCapacity(int capacity) {
+		pendingCapacity = -1;
+		if (capacity == buffer[0].length - 1)
+			return;
+		Cursor c = createCursor();
+		int n = c.read();
+		int k = Math.max(0, n - capacity);
+		SensorArchive a = archive;
+		if (a != null) {
+			for (int i = 0; i < k; i++)
+				a.append(c.time[i], c.value[i]);
+		}
+		// the kept samples stay at their indices, so that the cursors that have already read some of them carry on where they were
+		float[] t = new float[capacity + 1];
+		float[] v = new float[capacity + 1];
+		long e = end;
+		long index = e - (n - k);
+		int j;
+		for (int i = k; i < n; i++, index++) {
+			j = (int) (index % t.length);
+			t[j] = c.time[i];
+			v[j] = c.value[i];
+		}
+		// the floor is raised first, so that a reader that sees the new arrays does not look for the discarded samples in them
+		floor = e - (n - k);
+		buffer = new float[][] { t, v };
+	}
+
+	public void setArchive(SensorArchive archive) {
+		this.archive = archive;
+	}
+
+	public SensorArchive getArchive() {
+		return archive;
+	}
+
+	public void add(float t, float v) {
+		int p = pendingCapacity;
+		if (p >= 0)
+			applyCapacity(p);
+		float[][] b = buffer;
+		float[] time = b[0];
+		float[] value = b[1];
+		long e = end;
+		SensorArchive a = archive;
+		if (a != null) {
+			long oldest = e - (time.length - 1);
+			if (oldest >= Math.max(start, floor)) {
+				int j = (int) (oldest % time.length);
+				a.append(time[j], value[j]);
+			}
+		}
+		int i = (int) (e % time.length);
+		time[i] = t;
+		value[i] = v;
+		end = e + 1;
+	}
+
+	public void clear() {
+		start = end;
+		SensorArchive a = archive;
+		if (a != null)
+			a.clear();
+	}
+
+	private long getFirstIndex(long e) {
+		return Math.max(Math.max(start, floor), e - (buffer[0].length - 1));
+	}
+
+	public int size() {
+		long e = end;
+		return (int) (e - getFirstIndex(e));
+	}
+
+	public boolean isEmpty() {
+		return end <= Math.max(start, floor);
+	}
+
+	/** @return the value of the newest sample, or NaN if there is none */
+	public float getLastValue() {
+		long e = end;
+		if (e <= Math.max(start, floor))
+			return Float.NaN;
+		float[] value = buffer[1];
+		return value[(int) ((e - 1) % value.length)];
+	}
+
+	/** @return the time of the newest sample, or NaN if there is none */
+	public float getLastTime() {
+		long e = end;
+		if (e <= Math.max(start, floor))
+			return Float.NaN;
+		float[] time = buffer[0];
+		return time[(int) ((e - 1) % time.length)];
+	}
+
+	/** @return copies of the times and the values of all the stored samples, from the oldest to the newest */
+	public float[][] getSnapshot() {
+		Cursor c = createCursor();
+		int n = c.read();
+		return new float[][] { Arrays.copyOf(c.time, n), Arrays.copyOf(c.value, n) };
+	}
+
+	/** @return a new cursor, whose first read returns all the stored samples */
+	public Cursor createCursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * A cursor remembers how far it has read, so that each read returns only the samples added since the previous one.
+	 */
+	public class Cursor {
+
+		private long next;
+		private long seenStart = start;
+		private float[] time = new float[0], value = new float[0];
+		private int count;
+		private boolean cleared;
+
+		/** copy the samples added since the last read, from the oldest to the newest, and return their number */
+		public int read() {
+			long s = start;
+			cleared = s != seenStart;
+			seenStart = s;
+			int n;
+			// the arrays replaced during the copy may not hold the newest samples, so they are read again from the new arrays
+			while ((n = read(s)) < 0)
+				;
+			return n;
+		}
+
+		private int read(long s) {
+			float[][] b = buffer;
+			float[] t = b[0];
+			float[] v = b[1];
+			int slots = t.length;
+			long e = end;
+			// a cursor cannot be ahead of the series, but if it is, it starts over as if the series had been cleared
+			if (next > e) {
+				next = 0;
+				cleared = true;
+			}
+			// the floor is read after the end, so it may be past it if the capacity has just changed
+			long from = Math.min(e, Math.max(Math.max(next, floor), Math.max(s, e - (slots - 1))));
+			int n = (int) (e - from);
+			if (time.length < n) {
+				time = new float[slots];
+				value = new float[slots];
+			}
+			int i = (int) (from % slots);
+			int n1 = Math.min(n, slots - i);
+			System.arraycopy(t, i, time, 0, n1);
+			System.arraycopy(v, i, value, 0, n1);
+			System.arraycopy(t, 0, time, n1, n - n1);
+			System.arraycopy(v, 0, value, n1, n - n1);
+			// the samples whose slots have been taken by newer ones during the copy, including the one the writer may be storing now
+			if (buffer != b)
+				return -1;
+			int overwritten = (int) (end + 1 - slots - from);
+			if (overwritten > 0) {
+				n = Math.max(0, n - overwritten);
+				if (n > 0) {
+					System.arraycopy(time, overwritten, time, 0, n);
+					System.arraycopy(value, overwritten, value, 0, n);
+				}
+			}
+			next = e;
+			count = n;
+			return n;
+		}
+
+		/** @return true if the series has been cleared between the last two reads */
+		public boolean wasCleared() {
+			return cleared;
+		}
+
+		/** @return the number of samples copied by the last read */
+		public int getCount() {
+			return count;
+		}
+
+		public float getTime(int i) {
+			return time[i];
+		}
+
+		public float getValue(int i) {
+			return value[i];
+		}
+
+	}
+
+}
@@ -0,0 +1,77 @@
+/*
+ *   Copyright (C) 2012  The Concord Consortium, Inc.,
+ *   25 Love Lane, Concord, MA 01742
+ */
+
+package org.concord.energy2d.system;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.concord.energy2d.model.ModelState;
+
+/**
+ * Reads a model in the binary format written by BinaryEncoder. The file is mapped into memory, the setup is passed to the XML loader, and the state, if there is one, is read from the map in bulk and restored after the setup has been applied.
+ * 
+ * @author Charles Xie
+ * 
+ */
+class BinaryDecoder {
+
+	private System2D box;
+	private XmlLoader loader;
+
+	BinaryDecoder(System2D box, XmlLoader loader) {
+		this.box = box;
+		this.loader = loader;
+	}
+
+	static boolean isBinary(File file) {
+		return file.getName().toLowerCase().endsWith(".e2db");
+	}
+
+	void decode(File file) throws IOException, XMLStreamException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			MappedByteBuffer b = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			b.order(ByteOrder.LITTLE_ENDIAN);
+			ModelState state = null;
+			try {
+				if (b.remaining() < BinaryEncoder.HEADER_SIZE || b.getInt() != BinaryEncoder.MAGIC)
+					throw new IOException(file + " is not an Energy2D binary file.");
+				int version = b.getInt();
+				if (version > BinaryEncoder.VERSION)
+					throw new IOException(file + " was written by a newer version (format " + version + ").");
+				int flags = b.getInt();
+				int length = b.getInt();
+				if (length < 0 || length > b.remaining())
+					throw new IOException(file + " is truncated.");
+				byte[] setup = new byte[length];
+				b.get(setup);
+				loader.load(new ByteArrayInputStream(setup));
+				if ((flags & BinaryEncoder.STATE) != 0)
+					state = ModelState.read(b);
+			} catch (BufferUnderflowException e) {
+				throw new IOException(file + " is truncated.");
+			}
+			if (state != null) {
+				try {
+					box.model.restoreState(state);
+				} catch (IllegalArgumentException e) {
+					throw new IOException(file + " cannot be restored: " + e.getMessage());
+				}
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+}
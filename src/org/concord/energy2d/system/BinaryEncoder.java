@@ -0,0 +1,72 @@
+/*
+ *   Copyright (C) 2012  The Concord Consortium, Inc.,
+ *   25 Love Lane, Concord, MA 01742
+ */
+
+package org.concord.energy2d.system;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import org.concord.energy2d.model.ModelState;
+
+/**
+ * Writes a model in the binary format (.e2db). A file starts with a header of little-endian integers (the magic number, the version of the format, the flags and the length of the setup), followed by the setup, which is the UTF-8 encoded XML description of the model and the view that an .e2d file contains, and, if the STATE flag is set, the state of the model in the little-endian blocks of ModelState.
+ * 
+ * @author Charles Xie
+ * 
+ */
+class BinaryEncoder {
+
+	final static int MAGIC = 0x42443245; // "E2DB" read as a little-endian integer
+	final static int VERSION = 1;
+	final static int STATE = 1;
+	final static int HEADER_SIZE = 16;
+
+	private XmlEncoder encoder;
+
+	BinaryEncoder(XmlEncoder encoder) {
+		this.encoder = encoder;
+	}
+
+	/** @return the setup of the current model, encoded in the same way as an .e2d file */
+	byte[] encodeSetup() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		OutputStreamWriter writer = new OutputStreamWriter(bytes, "UTF-8");
+		encoder.encode(writer);
+		writer.close();
+		return bytes.toByteArray();
+	}
+
+	/** write the current setup and the state, which may be null, to the file */
+	void encode(File file, ModelState state) throws IOException {
+		encode(file, encodeSetup(), state);
+	}
+
+	/** write the setup and the state, which may be null, to the file */
+	static void encode(File file, byte[] setup, ModelState state) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			FileChannel channel = out.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(state != null ? STATE : 0).putInt(setup.length);
+			header.flip();
+			while (header.hasRemaining())
+				channel.write(header);
+			ByteBuffer b = ByteBuffer.wrap(setup);
+			while (b.hasRemaining())
+				channel.write(b);
+			if (state != null)
+				state.write(channel);
+		} finally {
+			out.close();
+		}
+	}
+
+}
@@ -0,0 +1,164 @@
+/*
+ *   Copyright (C) 2012  The Concord Consortium, Inc.,
+ *   25 Love Lane, Concord, MA 01742
+ */
+
+package org.concord.energy2d.system;
+
+import java.awt.EventQueue;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JOptionPane;
+
+import org.concord.energy2d.model.ModelState;
+
+/**
+ * Saves the model and its state to a checkpoint file in the binary format at regular intervals while it is being simulated, so that a long run can be resumed after it has been stopped or the program has quit. The setup is encoded on the event dispatch thread, where the model is edited, together with the numbers of the sensors, which is all that the event dispatch thread is held up for. The state is copied afterwards by a background thread between two steps, which holds up the simulation only for the time of the copy; if a sensor has been added or removed in between, the two do not agree and the checkpoint is left for the next time. The file is written by the background thread to a temporary file that then replaces the previous checkpoint, so a checkpoint is never left half written and the previous one is kept until the new one is in place. If a checkpoint cannot be written, the user is told and no more checkpoints are attempted.
+ * 
+ * @author Charles Xie
+ * 
+ */
+class Checkpointer {
+
+	private static ScheduledExecutorService checkpointService;
+
+	private System2D box;
+	private BinaryEncoder encoder;
+	private int interval = 60;
+	private ScheduledFuture<?> task;
+	// the step of the last checkpoint, so that the same state is not saved again
+	private int lastStep = -1;
+
+	Checkpointer(System2D box, BinaryEncoder encoder) {
+		this.box = box;
+		this.encoder = encoder;
+	}
+
+	/** set the time between two checkpoints in seconds */
+	void setInterval(int interval) {
+		this.interval = Math.max(1, interval);
+		if (task != null) {
+			stop();
+			start();
+		}
+	}
+
+	int getInterval() {
+		return interval;
+	}
+
+	synchronized void start() {
+		if (task != null)
+			return;
+		task = getCheckpointService().scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				checkpoint();
+			}
+		}, interval, interval, TimeUnit.SECONDS);
+	}
+
+	synchronized void stop() {
+		if (task != null) {
+			task.cancel(false);
+			task = null;
+		}
+	}
+
+	synchronized boolean isStarted() {
+		return task != null;
+	}
+
+	/* save a checkpoint if the model has advanced since the last one and has not been reset */
+	private void checkpoint() {
+		int step = box.model.getIndexOfStep();
+		if (step == 0 || step == lastStep)
+			return;
+		final byte[][] setup = new byte[1][];
+		final int[] sensors = new int[3];
+		final File[] file = new File[1];
+		final IOException[] error = new IOException[1];
+		try {
+			EventQueue.invokeAndWait(new Runnable() {
+				public void run() {
+					file[0] = box.getCheckpointFile();
+					try {
+						setup[0] = encoder.encodeSetup();
+					} catch (IOException e) {
+						error[0] = e;
+						return;
+					}
+					sensors[0] = box.model.getThermometers().size();
+					sensors[1] = box.model.getHeatFluxSensors().size();
+					sensors[2] = box.model.getRegionSensors().size();
+				}
+			});
+		} catch (InterruptedException e) {
+			return;
+		} catch (InvocationTargetException e) {
+			fail(new IOException(e.getCause()));
+			return;
+		}
+		if (error[0] != null) {
+			fail(error[0]);
+			return;
+		}
+		ModelState state = box.model.captureState();
+		if (state.getIndexOfStep() == 0 || !state.hasSensors(sensors[0], sensors[1], sensors[2]))
+			return;
+		File tmp = new File(file[0].getPath() + ".tmp");
+		try {
+			BinaryEncoder.encode(tmp, setup[0], state);
+			replace(tmp, file[0]);
+			lastStep = state.getIndexOfStep();
+		} catch (IOException e) {
+			tmp.delete();
+			fail(e);
+		}
+	}
+
+	/* stop saving checkpoints, which would most likely fail again at every interval, and tell the user why */
+	private void fail(final IOException e) {
+		stop();
+		EventQueue.invokeLater(new Runnable() {
+			public void run() {
+				JOptionPane.showMessageDialog(JOptionPane.getFrameForComponent(box.view), "Checkpoints cannot be saved, so saving them has been turned off:\n" + e.getLocalizedMessage(), "Checkpoint error", JOptionPane.ERROR_MESSAGE);
+			}
+		});
+	}
+
+	/* renaming does not replace an existing file on some platforms, so the old file is moved aside first and put back if the new one cannot take its place */
+	private static void replace(File source, File target) throws IOException {
+		if (source.renameTo(target))
+			return;
+		File backup = new File(target.getPath() + ".bak");
+		backup.delete();
+		if (target.exists() && !target.renameTo(backup))
+			throw new IOException("Cannot move " + target + " to " + backup);
+		if (!source.renameTo(target)) {
+			backup.renameTo(target);
+			throw new IOException("Cannot replace " + target);
+		}
+		backup.delete();
+	}
+
+	private static synchronized ScheduledExecutorService getCheckpointService() {
+		if (checkpointService == null) {
+			checkpointService = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Checkpoint Writer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return checkpointService;
+	}
+
+}
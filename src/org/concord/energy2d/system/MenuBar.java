@@ -63,7 +63,7 @@ class MenuBar extends JMenuBar {
 			if (index == -1)
 				return false;
 			String postfix = filename.substring(index + 1);
-			if ("e2d".equalsIgnoreCase(postfix))
+			if ("e2d".equalsIgnoreCase(postfix) || "e2db".equalsIgnoreCase(postfix))
 				return true;
 			return false;
 		}
@@ -250,6 +250,43 @@ class MenuBar extends JMenuBar {
 		fileMenu.addSeparator();
 		fileMenuItemCount++;
 
+		final JCheckBoxMenuItem checkpointMenuItem = new JCheckBoxMenuItem("Save Checkpoints Every Minute");
+		checkpointMenuItem.setSelected(box.isCheckpointOn());
+		checkpointMenuItem.addItemListener(new ItemListener() {
+			public void itemStateChanged(ItemEvent e) {
+				box.setCheckpointOn(checkpointMenuItem.isSelected());
+			}
+		});
+		fileMenu.add(checkpointMenuItem);
+		// saving checkpoints is turned off if one cannot be written
+		fileMenu.getPopupMenu().addPopupMenuListener(new PopupMenuListener() {
+			public void popupMenuWillBecomeVisible(PopupMenuEvent e) {
+				checkpointMenuItem.setSelected(box.isCheckpointOn());
+			}
+
+			public void popupMenuWillBecomeInvisible(PopupMenuEvent e) {
+			}
+
+			public void popupMenuCanceled(PopupMenuEvent e) {
+			}
+		});
+		fileMenuItemCount++;
+
+		mi = new JMenuItem("Restore Checkpoint");
+		mi.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				box.stop();
+				if (!box.askSaveBeforeLoading())
+					return;
+				box.restoreCheckpoint();
+			}
+		});
+		fileMenu.add(mi);
+		fileMenuItemCount++;
+
+		fileMenu.addSeparator();
+		fileMenuItemCount++;
+
 		final Action propertyAction = box.view.getActionMap().get("Property");
 		mi = new JMenuItem("Properties...");
 		mi.setAccelerator((KeyStroke) propertyAction.getValue(Action.ACCELERATOR_KEY));
@@ -832,7 +869,7 @@ class MenuBar extends JMenuBar {
 
 	private void save(System2D box) {
 		try {
-			box.saveState(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(box.getCurrentFile()), "UTF-8")));
+			write(box, box.getCurrentFile());
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
@@ -840,6 +877,14 @@ class MenuBar extends JMenuBar {
 		}
 	}
 
+	private static void write(System2D box, File file) throws IOException {
+		if (BinaryDecoder.isBinary(file)) {
+			box.saveBinaryState(file);
+		} else {
+			box.saveState(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8")));
+		}
+	}
+
 	private void saveAs(System2D box, JFrame frame) {
 		e2dFileChooser.setAcceptAllFileFilterUsed(false);
 		e2dFileChooser.addChoosableFileFilter(e2dFilter);
@@ -848,7 +893,7 @@ class MenuBar extends JMenuBar {
 		e2dFileChooser.setApproveButtonMnemonic('S');
 		if (e2dFileChooser.showSaveDialog(frame) == JFileChooser.APPROVE_OPTION) {
 			File file = e2dFileChooser.getSelectedFile();
-			if (!file.toString().toLowerCase().endsWith(".e2d")) {
+			if (!file.toString().toLowerCase().endsWith(".e2d") && !BinaryDecoder.isBinary(file)) {
 				file = new File(file.getParentFile(), MiscUtil.getFileName(file.toString()) + ".e2d");
 			}
 			boolean b = true;
@@ -860,7 +905,7 @@ class MenuBar extends JMenuBar {
 			if (b) {
 				box.setCurrentFile(file);
 				try {
-					box.saveState(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(box.getCurrentFile()), "UTF-8")));
+					write(box, file);
 				} catch (FileNotFoundException e) {
 					e.printStackTrace();
 				} catch (IOException e) {
@@ -121,6 +121,8 @@ class Scripter2D extends Scripter {
 			s2d.model.setInitialTemperature();
 			temperatureInitializationRequested = false;
 		}
+		// scripts may change boundary conditions and other properties in place
+		s2d.model.wakeUp();
 		s2d.view.repaint();
 	}
 
@@ -16,12 +16,14 @@ import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
 import java.net.URL;
@@ -44,9 +46,7 @@ import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
 import javax.swing.KeyStroke;
 import javax.swing.UIManager;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLStreamException;
 
 import org.concord.energy2d.event.IOEvent;
 import org.concord.energy2d.event.IOListener;
@@ -54,14 +54,15 @@ import org.concord.energy2d.event.ManipulationEvent;
 import org.concord.energy2d.event.ManipulationListener;
 import org.concord.energy2d.event.VisualizationEvent;
 import org.concord.energy2d.event.VisualizationListener;
+import org.concord.energy2d.model.HeatFluxSensor;
 import org.concord.energy2d.model.Model2D;
 import org.concord.energy2d.model.Part;
+import org.concord.energy2d.model.RegionSensor;
+import org.concord.energy2d.model.Sensor;
 import org.concord.energy2d.model.Thermometer;
+import org.concord.energy2d.util.MiscUtil;
 import org.concord.energy2d.view.View2D;
 import org.concord.modeler.MwService;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-import org.xml.sax.helpers.DefaultHandler;
 
 import com.apple.eawt.Application;
 import com.apple.eawt.ApplicationAdapter;
@@ -80,8 +81,10 @@ public class System2D extends JApplet implements MwService, VisualizationListene
 	private Scripter2D scripter;
 	private ExecutorService threadService;
 
-	private SAXParser saxParser;
-	private DefaultHandler saxHandler;
+	private XmlLoader loader;
+	private BinaryEncoder binaryEncoder;
+	private BinaryDecoder binaryDecoder;
+	private Checkpointer checkpointer;
 	private XmlEncoder encoder;
 	private File currentFile;
 	private URL currentURL;
@@ -116,14 +119,10 @@ public class System2D extends JApplet implements MwService, VisualizationListene
 		getContentPane().add(view, BorderLayout.CENTER);
 
 		encoder = new XmlEncoder(this);
-		saxHandler = new XmlDecoder(this);
-		try {
-			saxParser = SAXParserFactory.newInstance().newSAXParser();
-		} catch (SAXException e) {
-			e.printStackTrace();
-		} catch (ParserConfigurationException e) {
-			e.printStackTrace();
-		}
+		loader = new XmlLoader(new XmlDecoder(this));
+		binaryEncoder = new BinaryEncoder(encoder);
+		binaryDecoder = new BinaryDecoder(this, loader);
+		checkpointer = new Checkpointer(this, binaryEncoder);
 
 		createActions();
 
@@ -229,6 +228,7 @@ public class System2D extends JApplet implements MwService, VisualizationListene
 
 	public void destroy() {
 		stop();
+		checkpointer.stop();
 		try {
 			if (threadService != null && !threadService.isShutdown()) {
 				threadService.shutdownNow();
@@ -262,8 +262,8 @@ public class System2D extends JApplet implements MwService, VisualizationListene
 		if (reader == null)
 			return;
 		try {
-			saxParser.parse(new InputSource(reader), saxHandler);
-		} catch (SAXException e) {
+			loader.load(reader);
+		} catch (XMLStreamException e) {
 			e.printStackTrace();
 		} finally {
 			reader.close();
@@ -289,8 +289,8 @@ public class System2D extends JApplet implements MwService, VisualizationListene
 		if (is == null)
 			return;
 		try {
-			saxParser.parse(new InputSource(is), saxHandler);
-		} catch (SAXException e) {
+			loader.load(is);
+		} catch (XMLStreamException e) {
 			e.printStackTrace();
 		} finally {
 			is.close();
@@ -303,6 +303,100 @@ public class System2D extends JApplet implements MwService, VisualizationListene
 		});
 	}
 
+	private void loadBinaryStateApp(File file) throws IOException {
+		stop();
+		reset();
+		clear();
+		loadBinaryState(file);
+	}
+
+	private void loadBinaryState(File file) throws IOException {
+		saved = true;
+		stop();
+		try {
+			binaryDecoder.decode(file);
+		} catch (XMLStreamException e) {
+			e.printStackTrace();
+		}
+		EventQueue.invokeLater(new Runnable() {
+			public void run() {
+				if (buttonStop != null)
+					buttonStop.doClick();
+			}
+		});
+	}
+
+	/** save the model in the binary format, including its state if it has been run, so that it can resume where it is */
+	void saveBinaryState(File file) throws IOException {
+		if (clickStop != null) {
+			EventQueue.invokeLater(clickStop);
+		} else {
+			stop();
+		}
+		binaryEncoder.encode(file, model.getIndexOfStep() > 0 ? model.captureState() : null);
+		saved = true;
+	}
+
+	/** save checkpoints of the running model periodically, which can be restored with restoreCheckpoint() */
+	public void setCheckpointOn(boolean b) {
+		if (b)
+			checkpointer.start();
+		else
+			checkpointer.stop();
+	}
+
+	public boolean isCheckpointOn() {
+		return checkpointer.isStarted();
+	}
+
+	/** set the time between two checkpoints in seconds */
+	public void setCheckpointInterval(int seconds) {
+		checkpointer.setInterval(seconds);
+	}
+
+	public int getCheckpointInterval() {
+		return checkpointer.getInterval();
+	}
+
+	/** @return the checkpoint file of the current model, which is kept next to the model file, or in the temporary directory if the model has not been loaded from a file */
+	File getCheckpointFile() {
+		String name = null;
+		File dir = null;
+		if (currentFile != null) {
+			name = currentFile.getName();
+			dir = currentFile.getParentFile();
+		} else if (currentModel != null) {
+			name = MiscUtil.getFileName(currentModel);
+		} else if (currentURL != null) {
+			name = MiscUtil.getFileName(currentURL.getPath());
+		}
+		if (name == null || name.length() == 0)
+			name = "energy2d";
+		int i = name.lastIndexOf('.');
+		if (i > 0)
+			name = name.substring(0, i);
+		if (dir == null)
+			dir = new File(System.getProperty("java.io.tmpdir"));
+		return new File(dir, name + ".checkpoint.e2db");
+	}
+
+	/** load the last checkpoint of the current model, which continues exactly where it was saved */
+	void restoreCheckpoint() {
+		File file = getCheckpointFile();
+		if (!file.exists()) {
+			JOptionPane.showMessageDialog(JOptionPane.getFrameForComponent(view), "No checkpoint has been saved for this model.", "No checkpoint", JOptionPane.INFORMATION_MESSAGE);
+			return;
+		}
+		try {
+			loadBinaryStateApp(file);
+		} catch (IOException e) {
+			e.printStackTrace();
+			JOptionPane.showMessageDialog(JOptionPane.getFrameForComponent(view), e.getLocalizedMessage(), "File error", JOptionPane.ERROR_MESSAGE);
+		}
+		// the state differs from what the model file contains
+		saved = false;
+	}
+
 	void saveState(Writer writer) throws IOException {
 		if (clickStop != null) {
 			EventQueue.invokeLater(clickStop);
@@ -312,7 +406,7 @@ public class System2D extends JApplet implements MwService, VisualizationListene
 		if (writer == null)
 			return;
 		try {
-			writer.write(encoder.encode().toCharArray());
+			encoder.encode(writer);
 		} finally {
 			writer.close();
 		}
@@ -328,7 +422,8 @@ public class System2D extends JApplet implements MwService, VisualizationListene
 		if (os == null)
 			return;
 		try {
-			os.write(encoder.encode().getBytes());
+			// the document declares itself as UTF-8
+			encoder.encode(new BufferedWriter(new OutputStreamWriter(os, "UTF-8")));
 		} finally {
 			os.close();
 		}
@@ -340,8 +435,12 @@ public class System2D extends JApplet implements MwService, VisualizationListene
 		if (file == null)
 			return;
 		try {
-			// loadStateApp(new FileInputStream(file));
-			loadStateApp(new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8")));
+			if (BinaryDecoder.isBinary(file)) {
+				loadBinaryStateApp(file);
+			} else {
+				// loadStateApp(new FileInputStream(file));
+				loadStateApp(new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8")));
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 			JOptionPane.showMessageDialog(JOptionPane.getFrameForComponent(view), e.getLocalizedMessage(), "File error", JOptionPane.ERROR_MESSAGE);
@@ -486,11 +585,12 @@ public class System2D extends JApplet implements MwService, VisualizationListene
 	}
 
 	public void visualizationRequested(VisualizationEvent e) {
-		view.repaint();
+		view.repaintScene();
 		view.setTime(model.getTime());
 	}
 
 	public void manipulationOccured(ManipulationEvent e) {
+		model.wakeUp();
 		Object target = e.getTarget();
 		switch (e.getType()) {
 		case ManipulationEvent.PROPERTY_CHANGE:
@@ -504,6 +604,13 @@ public class System2D extends JApplet implements MwService, VisualizationListene
 				model.removePart((Part) target);
 			else if (target instanceof Thermometer)
 				model.getThermometers().remove((Thermometer) target);
+			else if (target instanceof HeatFluxSensor)
+				model.getHeatFluxSensors().remove((HeatFluxSensor) target);
+			else if (target instanceof RegionSensor)
+				model.getRegionSensors().remove((RegionSensor) target);
+			// a deleted sensor cannot be measured any more, so its archive file can go
+			if (target instanceof Sensor)
+				((Sensor) target).setArchived(false);
 			saved = false;
 			break;
 		case ManipulationEvent.RUN:
@@ -572,6 +679,8 @@ public class System2D extends JApplet implements MwService, VisualizationListene
 			if (p.getEmissivity() > 0)
 				model.getPhotons().clear();
 			saved = false;
+		} else if (target instanceof RegionSensor) {
+			model.invalidateShapes();
 		}
 		view.repaint();
 	}
@@ -687,6 +796,7 @@ public class System2D extends JApplet implements MwService, VisualizationListene
 		MenuBar menuBar = (MenuBar) box.owner.getJMenuBar();
 		preferences.put("Latest E2D Path", menuBar.getLatestPath("e2d"));
 		preferences.put("Latest HTM Path", menuBar.getLatestPath("htm"));
+		preferences.putBoolean("Checkpoint", box.isCheckpointOn());
 		String[] recentFiles = menuBar.getRecentFiles();
 		if (recentFiles != null) {
 			int n = recentFiles.length;
@@ -713,6 +823,7 @@ public class System2D extends JApplet implements MwService, VisualizationListene
 
 		final System2D box = new System2D();
 		box.view.setPreferredSize(new Dimension(w, w));
+		box.setCheckpointOn(preferences.getBoolean("Checkpoint", false));
 		final JFrame frame = new JFrame();
 		frame.setIconImage(new ImageIcon(System2D.class.getResource("resources/frame.png")).getImage());
 		MenuBar menuBar = new MenuBar(box, frame);
@@ -8,15 +8,17 @@ import java.util.List;
 import org.concord.energy2d.model.Boundary;
 import org.concord.energy2d.model.Constants;
 import org.concord.energy2d.model.DirichletThermalBoundary;
+import org.concord.energy2d.model.HeatFluxSensor;
 import org.concord.energy2d.model.MassBoundary;
 import org.concord.energy2d.model.SimpleMassBoundary;
 import org.concord.energy2d.model.ThermalBoundary;
 import org.concord.energy2d.model.Model2D;
 import org.concord.energy2d.model.NeumannThermalBoundary;
 import org.concord.energy2d.model.Part;
+import org.concord.energy2d.model.RegionSensor;
 import org.concord.energy2d.model.Thermometer;
 import org.concord.energy2d.util.ColorFill;
-import org.concord.energy2d.util.Scripter;
+import org.concord.energy2d.util.FloatParser;
 import org.concord.energy2d.util.Texture;
 import org.concord.energy2d.view.TextBox;
 import org.concord.energy2d.view.View2D;
@@ -32,6 +34,8 @@ class XmlDecoder extends DefaultHandler {
 
 	private System2D box;
 	private String str;
+	// the text of the current element, which may arrive in several pieces
+	private StringBuilder text = new StringBuilder();
 
 	// model properties
 	private float modelWidth = 10;
@@ -73,8 +77,10 @@ class XmlDecoder extends DefaultHandler {
 	private boolean graphOn;
 	private boolean clock = true;
 	private boolean smooth = true;
+	private int heatMapResolution;
 	private float minimumTemperature;
 	private float maximumTemperature = 40;
+	private boolean autoTemperatureRange;
 	private String graphXLabel, graphYLabel;
 
 	// part properties
@@ -163,8 +169,10 @@ class XmlDecoder extends DefaultHandler {
 		box.view.setColorPaletteRectangle(xColorPalette, yColorPalette, wColorPalette, hColorPalette);
 		box.view.setMinimumTemperature(minimumTemperature);
 		box.view.setMaximumTemperature(maximumTemperature);
+		box.view.setAutoTemperatureRange(autoTemperatureRange);
 		box.view.setClockOn(clock);
 		box.view.setSmooth(smooth);
+		box.view.setHeatMapResolution(heatMapResolution);
 		box.view.setGraphOn(graphOn);
 		if (graphXLabel != null)
 			box.view.setGraphXLabel(graphXLabel);
@@ -188,10 +196,7 @@ class XmlDecoder extends DefaultHandler {
 			}
 		}
 
-		box.model.refreshPowerArray();
-		box.model.refreshTemperatureBoundaryArray();
-		box.model.refreshMaterialPropertyArrays();
-		box.model.setInitialTemperature();
+		box.model.refreshArrays();
 		box.view.repaint();
 
 		resetGlobalVariables();
@@ -200,6 +205,7 @@ class XmlDecoder extends DefaultHandler {
 
 	public void startElement(String uri, String localName, String qName, Attributes attrib) {
 
+		text.setLength(0);
 		String attribName, attribValue;
 
 		if (qName == "rectangle") {
@@ -273,7 +279,7 @@ class XmlDecoder extends DefaultHandler {
 					}
 				}
 				if (count > 0 && vertices != null) {
-					float[] v = Scripter.parseArray(count * 2, vertices);
+					float[] v = FloatParser.parseArray(count * 2, vertices);
 					float[] x = new float[count];
 					float[] y = new float[count];
 					for (int i = 0; i < count; i++) {
@@ -375,6 +381,7 @@ class XmlDecoder extends DefaultHandler {
 				float x = Float.NaN, y = Float.NaN;
 				String label = null;
 				byte stencil = Thermometer.ONE_POINT;
+				boolean archived = false;
 				for (int i = 0, n = attrib.getLength(); i < n; i++) {
 					attribName = attrib.getQName(i).intern();
 					attribValue = attrib.getValue(i);
@@ -386,10 +393,87 @@ class XmlDecoder extends DefaultHandler {
 						stencil = Byte.parseByte(attribValue);
 					} else if (attribName == "label") {
 						label = attribValue;
+					} else if (attribName == "archived") {
+						archived = Boolean.parseBoolean(attribValue);
 					}
 				}
-				if (!Float.isNaN(x) && !Float.isNaN(y))
-					box.model.addThermometer(x, y, label, stencil);
+				if (!Float.isNaN(x) && !Float.isNaN(y)) {
+					Thermometer t = box.model.addThermometer(x, y, label, stencil);
+					if (archived)
+						t.setArchived(true);
+				}
+			}
+		} else if (qName == "heat_flux_sensor") {
+			if (attrib != null) {
+				float x1 = Float.NaN, y1 = Float.NaN, x2 = Float.NaN, y2 = Float.NaN;
+				String label = null;
+				boolean archived = false;
+				for (int i = 0, n = attrib.getLength(); i < n; i++) {
+					attribName = attrib.getQName(i).intern();
+					attribValue = attrib.getValue(i);
+					if (attribName == "x1") {
+						x1 = Float.parseFloat(attribValue);
+					} else if (attribName == "y1") {
+						y1 = Float.parseFloat(attribValue);
+					} else if (attribName == "x2") {
+						x2 = Float.parseFloat(attribValue);
+					} else if (attribName == "y2") {
+						y2 = Float.parseFloat(attribValue);
+					} else if (attribName == "label") {
+						label = attribValue;
+					} else if (attribName == "archived") {
+						archived = Boolean.parseBoolean(attribValue);
+					}
+				}
+				if (!Float.isNaN(x1) && !Float.isNaN(y1) && !Float.isNaN(x2) && !Float.isNaN(y2)) {
+					HeatFluxSensor f = new HeatFluxSensor(x1, y1, x2, y2);
+					f.setLabel(label);
+					if (archived)
+						f.setArchived(true);
+					box.model.addHeatFluxSensor(f);
+				}
+			}
+		} else if (qName == "region_sensor") {
+			if (attrib != null) {
+				float x = Float.NaN, y = Float.NaN, w = Float.NaN, h = Float.NaN;
+				String label = null, uid = null;
+				byte quantity = RegionSensor.TEMPERATURE;
+				boolean archived = false;
+				for (int i = 0, n = attrib.getLength(); i < n; i++) {
+					attribName = attrib.getQName(i).intern();
+					attribValue = attrib.getValue(i);
+					if (attribName == "x") {
+						x = Float.parseFloat(attribValue);
+					} else if (attribName == "y") {
+						y = Float.parseFloat(attribValue);
+					} else if (attribName == "width") {
+						w = Float.parseFloat(attribValue);
+					} else if (attribName == "height") {
+						h = Float.parseFloat(attribValue);
+					} else if (attribName == "part") {
+						uid = attribValue;
+					} else if (attribName == "quantity") {
+						quantity = Byte.parseByte(attribValue);
+					} else if (attribName == "label") {
+						label = attribValue;
+					} else if (attribName == "archived") {
+						archived = Boolean.parseBoolean(attribValue);
+					}
+				}
+				RegionSensor r = null;
+				// the parts have been read before the sensors
+				Part p = box.model.getPart(uid);
+				if (p != null)
+					r = new RegionSensor(p);
+				else if (!Float.isNaN(x) && !Float.isNaN(y) && !Float.isNaN(w) && !Float.isNaN(h))
+					r = new RegionSensor(x, y, w, h);
+				if (r != null) {
+					r.setQuantity(quantity);
+					r.setLabel(label);
+					if (archived)
+						r.setArchived(true);
+					box.model.addRegionSensor(r);
+				}
 			}
 		} else if (qName == "text") {
 			if (attrib != null) {
@@ -429,6 +513,9 @@ class XmlDecoder extends DefaultHandler {
 
 	public void endElement(String uri, String localName, String qName) {
 
+		str = text.toString();
+		text.setLength(0);
+
 		if (qName == "model_width") {
 			modelWidth = Float.parseFloat(str);
 		} else if (qName == "model_height") {
@@ -511,6 +598,10 @@ class XmlDecoder extends DefaultHandler {
 			clock = Boolean.parseBoolean(str);
 		} else if (qName == "smooth") {
 			smooth = Boolean.parseBoolean(str);
+		} else if (qName == "auto_temperature_range") {
+			autoTemperatureRange = Boolean.parseBoolean(str);
+		} else if (qName == "heat_map_resolution") {
+			heatMapResolution = Integer.parseInt(str);
 		} else if (qName == "graph") {
 			graphOn = Boolean.parseBoolean(str);
 		} else if (qName == "graph_xlabel") {
@@ -668,8 +759,10 @@ class XmlDecoder extends DefaultHandler {
 		graphOn = false;
 		clock = true;
 		smooth = true;
+		heatMapResolution = 0;
 		minimumTemperature = 0;
 		maximumTemperature = 40;
+		autoTemperatureRange = false;
 		graphXLabel = null;
 		graphYLabel = null;
 		heatMapType = View2D.HEATMAP_TEMPERATURE;
@@ -677,7 +770,7 @@ class XmlDecoder extends DefaultHandler {
 	}
 
 	public void characters(char[] ch, int start, int length) {
-		str = new String(ch, start, length);
+		text.append(ch, start, length);
 	}
 
 	public void warning(SAXParseException e) {
@@ -1,11 +1,16 @@
 package org.concord.energy2d.system;
 
 import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.List;
 
 import org.concord.energy2d.model.Constants;
+import org.concord.energy2d.model.HeatFluxSensor;
 import org.concord.energy2d.model.Part;
+import org.concord.energy2d.model.RegionSensor;
 import org.concord.energy2d.model.Thermometer;
+import org.concord.energy2d.util.XmlAppender;
 import org.concord.energy2d.view.View2D;
 
 /**
@@ -20,159 +25,183 @@ class XmlEncoder {
 		this.box = box;
 	}
 
-	String encode() {
+	/** write the state as an XML document to the writer, which should be buffered */
+	void encode(Writer writer) throws IOException {
 
-		StringBuffer sb = new StringBuffer(1000);
-		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-		sb.append("<state>\n");
+		XmlAppender out = new XmlAppender(writer);
+		out.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		out.append("<state>\n");
 
 		// model properties
 
-		sb.append("<model>\n");
+		out.append("<model>\n");
 
 		if (box.model.getLx() != 10) {
-			sb.append("<model_width>" + box.model.getLx() + "</model_width>\n");
+			out.element("model_width", box.model.getLx());
 		}
 		if (box.model.getLy() != 10) {
-			sb.append("<model_height>" + box.model.getLy() + "</model_height>\n");
+			out.element("model_height", box.model.getLy());
 		}
 		if (box.model.getTimeStep() != 1) {
-			sb.append("<timestep>" + box.model.getTimeStep() + "</timestep>\n");
+			out.element("timestep", box.model.getTimeStep());
 		}
 		if (box.model.getMeasurementInterval() != 500) {
-			sb.append("<measurement_interval>" + box.model.getMeasurementInterval() + "</measurement_interval>\n");
+			out.element("measurement_interval", box.model.getMeasurementInterval());
 		}
 		if (box.model.getViewUpdateInterval() != 100) {
-			sb.append("<viewupdate_interval>" + box.model.getViewUpdateInterval() + "</viewupdate_interval>\n");
+			out.element("viewupdate_interval", box.model.getViewUpdateInterval());
 		}
 		if (box.model.getStopTime() > 0) {
-			sb.append("<stoptime>" + box.model.getStopTime() + "</stoptime>");
+			out.element("stoptime", box.model.getStopTime());
 		}
 
 		if (box.model.isSunny()) {
-			sb.append("<sunny>true</sunny>");
+			out.element("sunny", true);
 		}
-		sb.append("<sun_angle>" + box.model.getSunAngle() + "</sun_angle>\n");
-		sb.append("<solar_power_density>" + box.model.getSolarPowerDensity() + "</solar_power_density>\n");
-		sb.append("<solar_ray_count>" + box.model.getSolarRayCount() + "</solar_ray_count>\n");
-		sb.append("<solar_ray_speed>" + box.model.getSolarRaySpeed() + "</solar_ray_speed>\n");
-		sb.append("<photon_emission_interval>" + box.model.getPhotonEmissionInterval() + "</photon_emission_interval>\n");
+		out.element("sun_angle", box.model.getSunAngle());
+		out.element("solar_power_density", box.model.getSolarPowerDensity());
+		out.element("solar_ray_count", box.model.getSolarRayCount());
+		out.element("solar_ray_speed", box.model.getSolarRaySpeed());
+		out.element("photon_emission_interval", box.model.getPhotonEmissionInterval());
 
-		sb.append("<z_heat_diffusivity>" + box.model.getZHeatDiffusivity() + "</z_heat_diffusivity>");
+		out.element("z_heat_diffusivity", box.model.getZHeatDiffusivity());
 
 		if (!box.model.isConvective()) {
-			sb.append("<convective>false</convective>\n");
+			out.element("convective", false);
 		}
 		if (box.model.getBackgroundConductivity() != Constants.AIR_THERMAL_CONDUCTIVITY) {
-			sb.append("<background_conductivity>" + box.model.getBackgroundConductivity() + "</background_conductivity>\n");
+			out.element("background_conductivity", box.model.getBackgroundConductivity());
 		}
 		if (box.model.getBackgroundDensity() != Constants.AIR_DENSITY) {
-			sb.append("<background_density>" + box.model.getBackgroundDensity() + "</background_density>\n");
+			out.element("background_density", box.model.getBackgroundDensity());
 		}
 		if (box.model.getBackgroundSpecificHeat() != Constants.AIR_SPECIFIC_HEAT) {
-			sb.append("<background_specific_heat>" + box.model.getBackgroundSpecificHeat() + "</background_specific_heat>\n");
+			out.element("background_specific_heat", box.model.getBackgroundSpecificHeat());
 		}
 		if (box.model.getBackgroundTemperature() != 0) {
-			sb.append("<background_temperature>" + box.model.getBackgroundTemperature() + "</background_temperature>\n");
+			out.element("background_temperature", box.model.getBackgroundTemperature());
 		}
 		if (box.model.getBackgroundViscosity() != Constants.AIR_VISCOSITY) {
-			sb.append("<background_viscosity>" + box.model.getBackgroundViscosity() + "</background_viscosity>\n");
+			out.element("background_viscosity", box.model.getBackgroundViscosity());
 		}
-		sb.append("<thermal_buoyancy>" + box.model.getThermalBuoyancy() + "</thermal_buoyancy>\n");
-		sb.append("<buoyancy_approximation>" + box.model.getBuoyancyApproximation() + "</buoyancy_approximation>\n");
+		out.element("thermal_buoyancy", box.model.getThermalBuoyancy());
+		out.element("buoyancy_approximation", box.model.getBuoyancyApproximation());
 
-		sb.append("<boundary>\n");
-		sb.append(box.model.getThermalBoundary().toXml());
-		sb.append(box.model.getMassBoundary().toXml());
-		sb.append("</boundary>\n");
+		out.append("<boundary>\n");
+		box.model.getThermalBoundary().toXml(out);
+		box.model.getMassBoundary().toXml(out);
+		out.append("</boundary>\n");
+
+		// the region sensors refer to their parts by UID, which may have been cleared since the sensors were attached
+		for (RegionSensor r : box.model.getRegionSensors()) {
+			if (r.getPart() != null)
+				box.model.ensureUid(r.getPart());
+		}
 
 		List<Part> parts = box.model.getParts();
 		if (!parts.isEmpty()) {
-			sb.append("<structure>\n");
+			out.append("<structure>\n");
 			for (Part p : parts) {
-				sb.append(p.toXml());
+				p.toXml(out);
 			}
-			sb.append("</structure>\n");
+			out.append("</structure>\n");
 		}
 
-		sb.append("</model>\n");
+		out.append("</model>\n");
 
 		// sensors
-		sb.append("<sensor>\n");
+		out.append("<sensor>\n");
 		List<Thermometer> thermometers = box.model.getThermometers();
 		if (thermometers != null) {
 			for (Thermometer t : thermometers) {
-				sb.append(t.toXml() + "\n");
+				t.toXml(out);
 			}
 		}
-		sb.append("</sensor>\n");
+		List<HeatFluxSensor> heatFluxSensors = box.model.getHeatFluxSensors();
+		if (heatFluxSensors != null) {
+			for (HeatFluxSensor f : heatFluxSensors) {
+				f.toXml(out);
+			}
+		}
+		List<RegionSensor> regionSensors = box.model.getRegionSensors();
+		if (regionSensors != null) {
+			for (RegionSensor r : regionSensors) {
+				r.toXml(out);
+			}
+		}
+		out.append("</sensor>\n");
 
 		// view properties
 
-		sb.append("<view>\n");
+		out.append("<view>\n");
 		if (box.view.isGridOn()) {
-			sb.append("<grid>true</grid>\n");
+			out.element("grid", true);
 		}
-		sb.append("<grid_size>" + box.view.getGridSize() + "</grid_size>\n");
+		out.element("grid_size", box.view.getGridSize());
 		if (box.view.isRulerOn()) {
-			sb.append("<ruler>true</ruler>\n");
+			out.element("ruler", true);
 		}
 		if (box.view.isIsothermOn()) {
-			sb.append("<isotherm>true</isotherm>\n");
+			out.element("isotherm", true);
 		}
 		if (box.view.isColorPaletteOn()) {
-			sb.append("<color_palette>true</color_palette>\n");
+			out.element("color_palette", true);
 		}
-		sb.append("<color_palette_type>" + box.view.getColorPaletteType() + "</color_palette_type>\n");
+		out.element("color_palette_type", box.view.getColorPaletteType());
 		if (!box.view.isFrankOn()) {
-			sb.append("<brand>false</brand>\n");
+			out.element("brand", false);
 		}
 		Rectangle2D.Float colorPalette = box.view.getColorPaletteRectangle();
-		sb.append("<color_palette_x>" + colorPalette.x + "</color_palette_x>");
-		sb.append("<color_palette_y>" + colorPalette.y + "</color_palette_y>");
-		sb.append("<color_palette_w>" + colorPalette.width + "</color_palette_w>");
-		sb.append("<color_palette_h>" + colorPalette.height + "</color_palette_h>");
-		sb.append("<minimum_temperature>" + box.view.getMinimumTemperature() + "</minimum_temperature>\n");
-		sb.append("<maximum_temperature>" + box.view.getMaximumTemperature() + "</maximum_temperature>\n");
+		out.element("color_palette_x", colorPalette.x);
+		out.element("color_palette_y", colorPalette.y);
+		out.element("color_palette_w", colorPalette.width);
+		out.element("color_palette_h", colorPalette.height);
+		out.element("minimum_temperature", box.view.getMinimumTemperature());
+		out.element("maximum_temperature", box.view.getMaximumTemperature());
+		if (box.view.isAutoTemperatureRange()) {
+			out.element("auto_temperature_range", true);
+		}
 		if (box.view.isVelocityOn()) {
-			sb.append("<velocity>true</velocity>\n");
+			out.element("velocity", true);
 		}
 		if (box.view.isHeatFluxArrowsOn()) {
-			sb.append("<heat_flux_arrow>true</heat_flux_arrow>\n");
+			out.element("heat_flux_arrow", true);
 		}
 		if (box.view.isHeatFluxLinesOn()) {
-			sb.append("<heat_flux_line>true</heat_flux_line>\n");
+			out.element("heat_flux_line", true);
 		}
 		if (box.view.isStreamlineOn()) {
-			sb.append("<streamline>true</streamline>\n");
+			out.element("streamline", true);
 		}
 		if (box.view.isGraphOn()) {
-			sb.append("<graph>true</graph>\n");
+			out.element("graph", true);
 		}
 		if (!View2D.DEFAULT_XLABEL.equals(box.view.getGraphXLabel()))
-			sb.append("<graph_xlabel>" + box.view.getGraphXLabel() + "</graph_xlabel>");
+			out.element("graph_xlabel", box.view.getGraphXLabel());
 		if (!View2D.DEFAULT_YLABEL.equals(box.view.getGraphYLabel()))
-			sb.append("<graph_ylabel>" + box.view.getGraphYLabel() + "</graph_ylabel>");
+			out.element("graph_ylabel", box.view.getGraphYLabel());
 		if (!box.view.isClockOn()) {
-			sb.append("<clock>false</clock>\n");
+			out.element("clock", false);
 		}
 		if (!box.view.isSmooth()) {
-			sb.append("<smooth>false</smooth>\n");
+			out.element("smooth", false);
+		}
+		if (box.view.getHeatMapResolution() > 0) {
+			out.element("heat_map_resolution", box.view.getHeatMapResolution());
 		}
 		if (box.view.getHeatMapType() != View2D.HEATMAP_TEMPERATURE) {
-			sb.append("<heat_map>" + box.view.getHeatMapType() + "</heat_map>\n");
+			out.element("heat_map", box.view.getHeatMapType());
 		}
 		int n = box.view.getTextBoxCount();
 		if (n > 0) {
 			for (int i = 0; i < n; i++) {
-				sb.append(box.view.getTextBox(i).toXml());
+				box.view.getTextBox(i).toXml(out);
 			}
 		}
-		sb.append("</view>\n");
-
-		sb.append("</state>\n");
+		out.append("</view>\n");
 
-		return sb.toString();
+		out.append("</state>\n");
+		out.flush();
 
 	}
 }
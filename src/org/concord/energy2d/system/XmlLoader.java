@@ -0,0 +1,140 @@
+/*
+ *   Copyright (C) 2012  The Concord Consortium, Inc.,
+ *   25 Love Lane, Concord, MA 01742
+ */
+
+package org.concord.energy2d.system;
+
+import java.io.InputStream;
+import java.io.Reader;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.xml.sax.Attributes;
+
+/**
+ * Loads a model by pulling the events from a StAX stream reader and passing them to an XmlDecoder, which is therefore shared with the SAX parser. Text is handed over directly from the buffer of the reader, and the attributes of an element are read from the reader through a view that is reused for all the elements, so nothing is copied except the values the decoder asks for.
+ * 
+ * @author Charles Xie
+ * 
+ */
+class XmlLoader {
+
+	private XmlDecoder decoder;
+	private XMLInputFactory factory;
+	private StreamAttributes attributes = new StreamAttributes();
+
+	XmlLoader(XmlDecoder decoder) {
+		this.decoder = decoder;
+		factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+	}
+
+	void load(Reader reader) throws XMLStreamException {
+		load(factory.createXMLStreamReader(reader));
+	}
+
+	void load(InputStream is) throws XMLStreamException {
+		load(factory.createXMLStreamReader(is));
+	}
+
+	private void load(XMLStreamReader reader) throws XMLStreamException {
+		attributes.reader = reader;
+		try {
+			decoder.startDocument();
+			while (reader.hasNext()) {
+				switch (reader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					decoder.startElement(null, null, reader.getLocalName().intern(), attributes);
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					decoder.endElement(null, null, reader.getLocalName().intern());
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					decoder.characters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+					break;
+				}
+			}
+			decoder.endDocument();
+		} finally {
+			attributes.reader = null;
+			reader.close();
+		}
+	}
+
+	/* the attributes of the current element of a stream reader */
+	private static class StreamAttributes implements Attributes {
+
+		private XMLStreamReader reader;
+
+		public int getLength() {
+			return reader.getAttributeCount();
+		}
+
+		public String getURI(int index) {
+			String uri = reader.getAttributeNamespace(index);
+			return uri == null ? "" : uri;
+		}
+
+		public String getLocalName(int index) {
+			return reader.getAttributeLocalName(index);
+		}
+
+		public String getQName(int index) {
+			String prefix = reader.getAttributePrefix(index);
+			String name = reader.getAttributeLocalName(index);
+			return prefix == null || prefix.length() == 0 ? name : prefix + ":" + name;
+		}
+
+		public String getType(int index) {
+			return reader.getAttributeType(index);
+		}
+
+		public String getValue(int index) {
+			return reader.getAttributeValue(index);
+		}
+
+		public int getIndex(String uri, String localName) {
+			for (int i = 0, n = getLength(); i < n; i++) {
+				if (getURI(i).equals(uri) && getLocalName(i).equals(localName))
+					return i;
+			}
+			return -1;
+		}
+
+		public int getIndex(String qName) {
+			for (int i = 0, n = getLength(); i < n; i++) {
+				if (getQName(i).equals(qName))
+					return i;
+			}
+			return -1;
+		}
+
+		public String getType(String uri, String localName) {
+			int i = getIndex(uri, localName);
+			return i < 0 ? null : getType(i);
+		}
+
+		public String getType(String qName) {
+			int i = getIndex(qName);
+			return i < 0 ? null : getType(i);
+		}
+
+		public String getValue(String uri, String localName) {
+			int i = getIndex(uri, localName);
+			return i < 0 ? null : getValue(i);
+		}
+
+		public String getValue(String qName) {
+			int i = getIndex(qName);
+			return i < 0 ? null : getValue(i);
+		}
+
+	}
+
+}
@@ -8,26 +8,34 @@ package org.concord.energy2d.util;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
-import java.awt.geom.Line2D;
-import java.awt.geom.Point2D;
-
-import org.concord.energy2d.math.MathUtil;
+import java.awt.geom.Path2D;
+import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * This class extracts contour lines with the marching squares algorithm. The lines of each level are collected into a single path, and the paths are only rebuilt when the version of the field, the resolution or the size of the view changes, so a repaint that is not caused by a simulation update just draws the cached paths.
+ * 
+ * @author Charles Xie
+ * 
+ */
 public class ContourMap {
 
+	// the edges of a cell crossed by the contour line(s) for each configuration of corners above the level, in pairs
+	private final static int BOTTOM = 0, RIGHT = 1, TOP = 2, LEFT = 3;
+	private final static int[][] EDGES = { {}, { LEFT, BOTTOM }, { BOTTOM, RIGHT }, { LEFT, RIGHT }, { RIGHT, TOP }, null, { BOTTOM, TOP }, { LEFT, TOP }, { TOP, LEFT }, { TOP, BOTTOM }, null, { TOP, RIGHT }, { RIGHT, LEFT }, { RIGHT, BOTTOM }, { BOTTOM, LEFT }, {} };
+
 	private float resolution = 1;
 	private Color color = Color.black;
-	private float[][] func;
-	private int nx, ny;
-	private Dimension size;
-	private Point2D.Float pa, pb;
-	private Line2D.Float line;
 	private int step = 1;
 
+	// the cached contour lines, one path per level
+	private List<Path2D.Float> paths;
+	private int version = -1;
+	private int width, height;
+	private float[][] func;
+
 	public ContourMap() {
-		pa = new Point2D.Float();
-		pb = new Point2D.Float();
-		line = new Line2D.Float();
+		paths = new ArrayList<Path2D.Float>();
 	}
 
 	public void setColor(Color color) {
@@ -39,60 +47,118 @@ public class ContourMap {
 	}
 
 	public void setResolution(float resolution) {
-		this.resolution = resolution;
+		if (this.resolution != resolution) {
+			this.resolution = resolution;
+			func = null;
+		}
 	}
 
 	public float getResolution() {
 		return resolution;
 	}
 
-	public void render(Graphics2D g, Dimension size, float[][] func) {
-		this.func = func;
-		this.nx = func.length;
-		this.ny = func[0].length;
-		this.size = size;
+	/**
+	 * draw the contour lines of the field. The lines are extracted again only if the version, the array or the size differs from the last call.
+	 */
+	public void render(Graphics2D g, Dimension size, float[][] func, int version) {
+		if (func != this.func || version != this.version || size.width != width || size.height != height) {
+			this.func = func;
+			this.version = version;
+			width = size.width;
+			height = size.height;
+			extract();
+		}
 		g.setColor(color);
-		for (int x = 0; x < nx - step; x += step)
-			for (int y = 0; y < ny - step; y += step) {
-				connect(g, x, y, x + step, y, x, y + step, x + step, y + step);
-				connect(g, x, y, x + step, y, x, y, x, y + step);
-				connect(g, x, y, x + step, y, x + step, y, x + step, y + step);
-				connect(g, x, y, x, y + step, x + step, y, x + step, y + step);
-				connect(g, x, y, x, y + step, x, y + step, x + step, y + step);
-				connect(g, x + step, y, x + step, y + step, x, y + step, x + step, y + step);
-			}
+		for (Path2D.Float p : paths)
+			g.draw(p);
 	}
 
-	// draw a contour line between (x1, y1) - (x2, y2) and (x3, y3) - (x4, y4) if applicable
-	private void connect(Graphics2D g, int x1, int y1, int x2, int y2, int x3, int y3, int x4, int y4) {
-		float f1 = func[x1][y1];
-		float f2 = func[x2][y2];
-		float f3 = func[x3][y3];
-		float f4 = func[x4][y4];
-		float fmin = Math.min(Math.min(f1, f2), Math.min(f3, f4));
-		float fmax = Math.max(Math.max(f1, f2), Math.max(f3, f4));
-		int imin = (int) (fmin / resolution);
-		int imax = (int) (fmax / resolution);
-		if (imin != imax) {
-			float v;
-			for (int i = imin; i <= imax; i++) {
-				v = i * resolution;
-				if (MathUtil.between(f1, f2, v) && MathUtil.between(f3, f4, v)) {
-					interpolate(f1, f2, x1, y1, x2, y2, v, pa);
-					interpolate(f3, f4, x3, y3, x4, y4, v, pb);
-					line.setLine(pa, pb);
-					g.draw(line);
-				}
+	private void extract() {
+
+		paths.clear();
+		int nx = func.length;
+		int ny = func[0].length;
+		float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+		for (int x = 0; x < nx; x += step) {
+			for (int y = 0; y < ny; y += step) {
+				if (func[x][y] < min)
+					min = func[x][y];
+				if (func[x][y] > max)
+					max = func[x][y];
 			}
 		}
-	}
+		if (!(max > min)) // also true if the field contains NaN
+			return;
+		int lowest = (int) Math.floor(min / resolution);
+		int highest = (int) Math.floor(max / resolution);
+		Path2D.Float[] levels = new Path2D.Float[highest - lowest + 1];
 
-	private void interpolate(float f1, float f2, int x1, int y1, int x2, int y2, float v, Point2D.Float p) {
-		float r2 = (v - f1) / (f2 - f1);
-		float r1 = 1 - r2;
+		float sx = width / (float) nx;
+		float sy = height / (float) ny;
 		float h = 0.5f * step;
-		p.x = ((x1 + h) * r1 + (x2 + h) * r2) * size.width / (float) nx;
-		p.y = ((y1 + h) * r1 + (y2 + h) * r2) * size.height / (float) ny;
+		float[] ex = new float[4], ey = new float[4];
+		float f00, f10, f01, f11, fmin, fmax, v;
+		int mask;
+		int[] edges;
+		Path2D.Float p;
+
+		for (int x = 0; x < nx - step; x += step) {
+			for (int y = 0; y < ny - step; y += step) {
+				f00 = func[x][y];
+				f10 = func[x + step][y];
+				f01 = func[x][y + step];
+				f11 = func[x + step][y + step];
+				fmin = Math.min(Math.min(f00, f10), Math.min(f01, f11));
+				fmax = Math.max(Math.max(f00, f10), Math.max(f01, f11));
+				for (int i = (int) Math.floor(fmin / resolution); i <= (int) Math.floor(fmax / resolution); i++) {
+					v = i * resolution;
+					mask = 0;
+					if (f00 > v)
+						mask |= 1;
+					if (f10 > v)
+						mask |= 2;
+					if (f11 > v)
+						mask |= 4;
+					if (f01 > v)
+						mask |= 8;
+					if (mask == 0 || mask == 15)
+						continue;
+					// the crossing points on the four edges, in pixels
+					ex[BOTTOM] = (x + h + step * (v - f00) / (f10 - f00)) * sx;
+					ey[BOTTOM] = (y + h) * sy;
+					ex[RIGHT] = (x + step + h) * sx;
+					ey[RIGHT] = (y + h + step * (v - f10) / (f11 - f10)) * sy;
+					ex[TOP] = (x + h + step * (v - f01) / (f11 - f01)) * sx;
+					ey[TOP] = (y + step + h) * sy;
+					ex[LEFT] = (x + h) * sx;
+					ey[LEFT] = (y + h + step * (v - f00) / (f01 - f00)) * sy;
+					edges = EDGES[mask];
+					if (edges == null) {
+						// a saddle point, resolved by the average of the four corners
+						boolean centerAbove = 0.25f * (f00 + f10 + f01 + f11) > v;
+						if (mask == 5)
+							edges = centerAbove ? new int[] { LEFT, TOP, BOTTOM, RIGHT } : new int[] { LEFT, BOTTOM, RIGHT, TOP };
+						else
+							edges = centerAbove ? new int[] { BOTTOM, LEFT, TOP, RIGHT } : new int[] { BOTTOM, RIGHT, TOP, LEFT };
+					}
+					p = levels[i - lowest];
+					if (p == null) {
+						p = new Path2D.Float();
+						levels[i - lowest] = p;
+					}
+					for (int k = 0; k < edges.length; k += 2) {
+						p.moveTo(ex[edges[k]], ey[edges[k]]);
+						p.lineTo(ex[edges[k + 1]], ey[edges[k + 1]]);
+					}
+				}
+			}
+		}
+
+		for (Path2D.Float x : levels) {
+			if (x != null)
+				paths.add(x);
+		}
+
 	}
 
 }
@@ -9,22 +9,24 @@ package org.concord.energy2d.util;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
-import java.util.Arrays;
+import java.awt.geom.Path2D;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
+ * Field lines are traced in a background thread from a copy of the field, and stored as polylines grouped by color. The traced lines are drawn on every repaint until the version of the field or the size of the view changes, at which point they are traced again while the old ones remain on the screen. When a trace is done, the callback given to render is run to repaint only if the lines are still those of the latest field drawn; if the field has changed in the meantime, the lines are traced again for it in the background instead, so that a field changing at every step does not cause a repaint for each trace. If no callback is given, for instance when rendering offscreen, the lines are traced right away in the calling thread.
+ * 
  * @author Charles Xie
  * 
  */
 public class FieldLines {
 
+	private static ExecutorService traceService;
+
 	private int arrowSpacing = 16; // in pixels
 	private int fluxLineSpacing = 2 * arrowSpacing; // in pixels
-	private int nx, ny;
-	private float[][] func, funx, funy;
-	private Dimension size;
-	private float dx, dy;
-	private float vx, vy;
-	private int arrowDirection = 1;
 	private int numColors = 16;
 	private Color[] spectrum;
 	private Color minColor = new Color(0.0f, 0.0f, 1.0f);
@@ -33,8 +35,12 @@ public class FieldLines {
 	private float minimumMagnitude = 0.0001f;
 	private float arrowLength = .75f;
 
-	// a 2D array of flags, each corresponding to a region of the back buffer
-	private boolean[][] map;
+	// changed by every setter so that lines traced with old settings are discarded
+	private int modCount;
+	private volatile Trace trace;
+	private Future<?> pending;
+	// the field drawn by the last call of render
+	private volatile Request latest;
 
 	public FieldLines() {
 		spectrum = new Color[numColors];
@@ -46,215 +52,316 @@ public class FieldLines {
 
 	public void setArrowSpacing(int arrowSpacing) {
 		this.arrowSpacing = arrowSpacing;
+		modCount++;
 	}
 
 	public void setFluxLineSpacing(int fluxLineSpacing) {
 		this.fluxLineSpacing = fluxLineSpacing;
+		modCount++;
 	}
 
 	public void setColor(Color color) {
 		this.color = color;
+		modCount++;
 	}
 
 	public void setMinimumColor(Color c) {
 		minColor = c;
+		modCount++;
 	}
 
 	public void setMaximumColor(Color c) {
 		maxColor = c;
+		modCount++;
 	}
 
 	// draw field lines for a 2D vector function
-	public void render(Graphics2D g, Dimension size, float[][] funx, float[][] funy) {
-
-		this.funx = funx;
-		this.funy = funy;
-		this.nx = funx.length;
-		this.ny = funx[0].length;
-		this.size = size;
-		dx = (float) size.width / (float) nx;
-		dy = (float) size.height / (float) ny;
-		int mx = size.width / fluxLineSpacing + 1;
-		int my = size.height / fluxLineSpacing + 1;
-		if (map == null || map.length != mx || map[0].length != my)
-			map = new boolean[mx][my];
-		for (int i = 0; i < map.length; i++)
-			Arrays.fill(map[i], false);
-		int maxLength = Math.max(size.width, size.height);
-
-		float x = 0, y = 0;
-		for (int i = 0; i < map.length; i++) {
-			for (int j = 0; j < map[0].length; j++) {
-				if (!map[i][j]) {
-					// place a seed point in the center of the region
-					x = (i + 0.5f) * fluxLineSpacing;
-					y = (j + 0.5f) * fluxLineSpacing;
-					// draw flux lines forward and backward through the seed point
-					drawFluxLineForVector(g, x, y, 1, maxLength);
-					drawFluxLineForVector(g, x, y, -1, maxLength);
-				}
+	public void render(Runnable repaint, Graphics2D g, Dimension size, float[][] funx, float[][] funy, int version) {
+		render(repaint, g, new Request(funx, funy, null, 1, version, size.width, size.height, modCount));
+	}
+
+	// draw field lines for the gradient of a scalar function
+	public void render(Runnable repaint, Graphics2D g, Dimension size, float[][] func, int arrowDirection, int version) {
+		render(repaint, g, new Request(null, null, func, arrowDirection, version, size.width, size.height, modCount));
+	}
+
+	private void render(Runnable repaint, Graphics2D g, Request r) {
+		latest = r;
+		Trace t = trace;
+		if ((t == null || !t.matches(r)) && !isTracing())
+			t = retrace(repaint, r);
+		draw(g, t);
+	}
+
+	private static void draw(Graphics2D g, Trace t) {
+		if (t == null)
+			return;
+		for (int i = 0; i < t.paths.length; i++) {
+			if (t.paths[i] != null) {
+				g.setColor(t.colors[i]);
+				g.draw(t.paths[i]);
 			}
 		}
+	}
 
+	// while a trace is under way, the lines already traced are drawn, and the next repaint after it finishes checks again if they are stale
+	private boolean isTracing() {
+		return pending != null && !pending.isDone();
 	}
 
-	/*
-	 * @x, @y pixel location of point to start at
-	 * 
-	 * @sign +1 to travel with the field, -1 to travel against it
-	 */
-	private void drawFluxLineForVector(Graphics2D g, float x, float y, float sign, int maxLength) {
-
-		int i, j;
-		double magnitude = 0;
-		float newX = 0, newY = 0;
-		float arrowScale = sign * arrowLength * arrowSpacing;
-
-		for (int k = 0; k < maxLength; k++) {
-
-			i = Math.round(x / dx);
-			j = Math.round(y / dy);
-			if (i <= 0 || i >= nx - 1 || j <= 0 || j >= ny - 1)
-				continue;
-
-			vx = funx[i][j];
-			vy = funy[i][j];
-			magnitude = Math.hypot(vx, vy);
-			if (magnitude < minimumMagnitude)
-				break;
-			vx *= sign;
-			vy *= sign;
-			vx /= magnitude;
-			vy /= magnitude;
-
-			newX = x + vx;
-			newY = y + vy;
-			g.setColor(color != null ? color : getColor(magnitude));
-			g.drawLine(Math.round(x), Math.round(y), Math.round(newX), Math.round(newY));
-			// every few pixels, draw an arrow
-			if (k > 0 && (k % (5 * arrowSpacing) == 0)) {
-				drawArrow(g, x, y, x + arrowScale * vx, y + arrowScale * vy);
-			}
+	// return the lines to draw now, which are the new ones only if they are traced right away
+	private Trace retrace(final Runnable repaint, Request r) {
+		final Tracer first = createTracer(r);
+		if (repaint == null) {
+			first.run();
+			trace = first.trace;
+		} else {
+			pending = getTraceService().submit(new Runnable() {
+				public void run() {
+					Tracer tracer = first;
+					while (true) {
+						tracer.run();
+						trace = tracer.trace;
+						Request next = latest;
+						if (tracer.trace.matches(next)) {
+							repaint.run();
+							break;
+						}
+						tracer = createTracer(next);
+					}
+				}
+			});
+		}
+		return trace;
+	}
 
-			x = newX;
-			y = newY;
-			if (x < 0 || x >= size.width || y < 0 || y >= size.height)
-				// we're outside the image's boundaries
-				break;
+	private Tracer createTracer(Request r) {
+		Tracer tracer = r.func != null ? new Tracer(null, null, copy(r.func), r.arrowDirection) : new Tracer(copy(r.funx), copy(r.funy), null, 1);
+		tracer.trace = new Trace(r.func != null ? r.func : r.funx, r.version, r.width, r.height, r.arrowDirection, r.modCount, color != null ? new Color[] { color } : spectrum.clone());
+		return tracer;
+	}
+
+	private static float[][] copy(float[][] src) {
+		float[][] dst = new float[src.length][src[0].length];
+		MiscUtil.copy(dst, src);
+		return dst;
+	}
 
-			// mark this part of the image as occupied by a flux line
-			map[Math.round(x) / fluxLineSpacing][Math.round(y) / fluxLineSpacing] = true;
+	private static synchronized ExecutorService getTraceService() {
+		if (traceService == null) {
+			traceService = Executors.newFixedThreadPool(1, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Field Line Tracer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return traceService;
+	}
+
+	// the traced lines, grouped by color, and what they were traced from
+	private static class Trace {
+
+		private Object field;
+		private int version, width, height, arrowDirection, modCount;
+		private Color[] colors;
+		private Path2D.Float[] paths;
+
+		Trace(Object field, int version, int width, int height, int arrowDirection, int modCount, Color[] colors) {
+			this.field = field;
+			this.version = version;
+			this.width = width;
+			this.height = height;
+			this.arrowDirection = arrowDirection;
+			this.modCount = modCount;
+			this.colors = colors;
+			paths = new Path2D.Float[colors.length];
+		}
+
+		boolean matches(Request r) {
+			return field == (r.func != null ? r.func : r.funx) && version == r.version && width == r.width && height == r.height && arrowDirection == r.arrowDirection && modCount == r.modCount;
 		}
 
 	}
 
-	// draw field lines for the gradient of a scalar function
-	public void render(Graphics2D g, Dimension size, float[][] func, int arrowDirection) {
-
-		this.func = func;
-		this.nx = func.length;
-		this.ny = func[0].length;
-		this.size = size;
-		this.arrowDirection = arrowDirection;
-		dx = (float) size.width / (float) nx;
-		dy = (float) size.height / (float) ny;
-		int mx = size.width / fluxLineSpacing + 1;
-		int my = size.height / fluxLineSpacing + 1;
-		if (map == null || map.length != mx || map[0].length != my)
-			map = new boolean[mx][my];
-		for (int i = 0; i < map.length; i++)
-			Arrays.fill(map[i], false);
-		int maxLength = Math.max(size.width, size.height);
-
-		float x = 0, y = 0;
-		for (int i = 0; i < map.length; i++) {
-			for (int j = 0; j < map[0].length; j++) {
-				if (!map[i][j]) {
-					// place a seed point in the centre of the region
-					x = (i + 0.5f) * fluxLineSpacing;
-					y = (j + 0.5f) * fluxLineSpacing;
-					// draw flux lines forward and backward through the seed point
-					drawFluxLineForScalar(g, x, y, 1, maxLength);
-					drawFluxLineForScalar(g, x, y, -1, maxLength);
+	// what a call of render asks to be drawn
+	private static class Request {
+
+		private final float[][] funx, funy, func;
+		private final int arrowDirection, version, width, height, modCount;
+
+		Request(float[][] funx, float[][] funy, float[][] func, int arrowDirection, int version, int width, int height, int modCount) {
+			this.funx = funx;
+			this.funy = funy;
+			this.func = func;
+			this.arrowDirection = arrowDirection;
+			this.version = version;
+			this.width = width;
+			this.height = height;
+			this.modCount = modCount;
+		}
+
+	}
+
+	// traces the field lines of either a vector function (funx, funy) or the gradient of a scalar function (func)
+	private class Tracer implements Runnable {
+
+		private float[][] funx, funy, func;
+		private int arrowDirection;
+		private int nx, ny;
+		private float dx, dy;
+		private int fluxLineSpacing, arrowSpacing;
+		private float minimumMagnitude, arrowLength;
+		private Trace trace;
+		// a 2D array of flags, each corresponding to a region of the view
+		private boolean[][] map;
+		private int lastColor;
+
+		Tracer(float[][] funx, float[][] funy, float[][] func, int arrowDirection) {
+			this.funx = funx;
+			this.funy = funy;
+			this.func = func;
+			this.arrowDirection = arrowDirection;
+			fluxLineSpacing = FieldLines.this.fluxLineSpacing;
+			arrowSpacing = FieldLines.this.arrowSpacing;
+			minimumMagnitude = FieldLines.this.minimumMagnitude;
+			arrowLength = FieldLines.this.arrowLength;
+		}
+
+		public void run() {
+
+			float[][] f = func != null ? func : funx;
+			nx = f.length;
+			ny = f[0].length;
+			dx = (float) trace.width / (float) nx;
+			dy = (float) trace.height / (float) ny;
+			map = new boolean[trace.width / fluxLineSpacing + 1][trace.height / fluxLineSpacing + 1];
+			int maxLength = Math.max(trace.width, trace.height);
+
+			float x = 0, y = 0;
+			for (int i = 0; i < map.length; i++) {
+				for (int j = 0; j < map[0].length; j++) {
+					if (!map[i][j]) {
+						// place a seed point in the center of the region
+						x = (i + 0.5f) * fluxLineSpacing;
+						y = (j + 0.5f) * fluxLineSpacing;
+						// trace flux lines forward and backward through the seed point
+						traceFluxLine(x, y, 1, maxLength);
+						traceFluxLine(x, y, -1, maxLength);
+					}
 				}
 			}
+
 		}
 
-	}
+		/*
+		 * @x, @y pixel location of point to start at
+		 * 
+		 * @sign +1 to travel with the field, -1 to travel against it
+		 */
+		private void traceFluxLine(float x, float y, float sign, int maxLength) {
+
+			int i, j;
+			double magnitude = 0;
+			float newX = 0, newY = 0;
+			float vx, vy;
+			float arrowScale = sign * arrowLength * arrowDirection * arrowSpacing;
+			lastColor = -1;
+
+			for (int k = 0; k < maxLength; k++) {
+
+				i = Math.round(x / dx);
+				j = Math.round(y / dy);
+				if (i <= 0 || i >= nx - 1 || j <= 0 || j >= ny - 1)
+					continue;
+
+				if (func != null) {
+					vx = (func[i + 1][j] - func[i - 1][j]) / 2;
+					vy = (func[i][j + 1] - func[i][j - 1]) / 2;
+				} else {
+					vx = funx[i][j];
+					vy = funy[i][j];
+				}
+				vx *= sign;
+				vy *= sign;
+				magnitude = Math.hypot(vx, vy);
+				if (magnitude < minimumMagnitude)
+					break;
+				vx /= magnitude;
+				vy /= magnitude;
+
+				newX = x + vx;
+				newY = y + vy;
+				lineTo(getColorIndex(magnitude), x, y, newX, newY);
+				// every few pixels, add an arrow
+				if (k > 0 && (k % (5 * arrowSpacing) == 0)) {
+					addArrow(x, y, x + arrowScale * vx, y + arrowScale * vy);
+				}
+
+				x = newX;
+				y = newY;
+				if (x < 0 || x >= trace.width || y < 0 || y >= trace.height)
+					// we're outside the image's boundaries
+					break;
 
-	/*
-	 * @x, @y pixel location of point to start at
-	 * 
-	 * @sign +1 to travel with the field, -1 to travel against it
-	 */
-	private void drawFluxLineForScalar(Graphics2D g, float x, float y, float sign, int maxLength) {
-
-		int i, j;
-		double magnitude = 0;
-		float newX = 0, newY = 0;
-		float arrowScale = sign * arrowLength * arrowDirection * arrowSpacing;
-
-		for (int k = 0; k < maxLength; k++) {
-
-			i = Math.round(x / dx);
-			j = Math.round(y / dy);
-			if (i <= 0 || i >= nx - 1 || j <= 0 || j >= ny - 1)
-				continue;
-
-			vx = (func[i + 1][j] - func[i - 1][j]) / 2;
-			vy = (func[i][j + 1] - func[i][j - 1]) / 2;
-			vx *= sign;
-			vy *= sign;
-			magnitude = Math.hypot(vx, vy);
-			if (magnitude < minimumMagnitude)
-				break;
-			vx /= magnitude;
-			vy /= magnitude;
-
-			newX = x + vx;
-			newY = y + vy;
-			g.setColor(color == null ? getColor(magnitude) : color);
-			g.drawLine(Math.round(x), Math.round(y), Math.round(newX), Math.round(newY));
-			// every few pixels, draw an arrow
-			if (k > 0 && (k % (5 * arrowSpacing) == 0)) {
-				drawArrow(g, x, y, x + arrowScale * vx, y + arrowScale * vy);
+				// mark this part of the image as occupied by a flux line
+				map[Math.round(x) / fluxLineSpacing][Math.round(y) / fluxLineSpacing] = true;
 			}
 
-			x = newX;
-			y = newY;
-			if (x < 0 || x >= size.width || y < 0 || y >= size.height)
-				// we're outside the image's boundaries
-				break;
+		}
 
-			// mark this part of the image as occupied by a flux line
-			map[Math.round(x) / fluxLineSpacing][Math.round(y) / fluxLineSpacing] = true;
+		// continue the polyline of the given color, or start a new one if the previous segment had a different color
+		private void lineTo(int c, float x1, float y1, float x2, float y2) {
+			Path2D.Float p = getPath(c);
+			if (c != lastColor) {
+				p.moveTo(Math.round(x1), Math.round(y1));
+				lastColor = c;
+			}
+			p.lineTo(Math.round(x2), Math.round(y2));
 		}
 
-	}
+		// (x1,y1) is the origin of the arrow; (x2,y2) is the tip of the arrow
+		private void addArrow(float x1, float y1, float x2, float y2) {
+			float dx = x2 - x1;
+			float dy = y2 - y1;
+			float f = 1 / 3.0f; // length of arrow head over length of arrow stem
+			float f2 = 1 / 6.0f; // half-width of arrow head over length of arrow stem
+			float x3 = x2 - f * dx - f2 * dy;
+			float y3 = y2 - f * dy + f2 * dx;
+			float x4 = x2 - f * dx + f2 * dy;
+			float y4 = y2 - f * dy - f2 * dx;
+			Path2D.Float p = getPath(lastColor);
+			p.moveTo(Math.round(x1), Math.round(y1));
+			p.lineTo(Math.round(x2), Math.round(y2));
+			p.moveTo(Math.round(x3), Math.round(y3));
+			p.lineTo(Math.round(x2), Math.round(y2));
+			p.lineTo(Math.round(x4), Math.round(y4));
+			// the arrow breaks the polyline
+			lastColor = -1;
+		}
 
-	private Color getColor(double magnitude) {
-		int colorIndex = (int) ((Math.log10(magnitude) + 3) / 3.6 * numColors);
-		// clamp the result
-		if (colorIndex < 0)
-			colorIndex = 0;
-		else if (colorIndex >= numColors)
-			colorIndex = numColors - 1;
-		return spectrum[colorIndex];
-	}
+		private Path2D.Float getPath(int c) {
+			Path2D.Float p = trace.paths[c];
+			if (p == null) {
+				p = new Path2D.Float();
+				trace.paths[c] = p;
+			}
+			return p;
+		}
+
+		private int getColorIndex(double magnitude) {
+			if (trace.colors.length == 1)
+				return 0;
+			int colorIndex = (int) ((Math.log10(magnitude) + 3) / 3.6 * numColors);
+			// clamp the result
+			if (colorIndex < 0)
+				colorIndex = 0;
+			else if (colorIndex >= numColors)
+				colorIndex = numColors - 1;
+			return colorIndex;
+		}
 
-	// (x1,y1) is the origin of the arrow; (x2,y2) is the tip of the arrow
-	private static void drawArrow(Graphics2D g, float x1, float y1, float x2, float y2) {
-		float dx = x2 - x1;
-		float dy = y2 - y1;
-		float f = 1 / 3.0f; // length of arrow head over length of arrow stem
-		float f2 = 1 / 6.0f; // half-width of arrow head over length of arrow stem
-		float x3 = x2 - f * dx - f2 * dy;
-		float y3 = y2 - f * dy + f2 * dx;
-		float x4 = x2 - f * dx + f2 * dy;
-		float y4 = y2 - f * dy - f2 * dx;
-		g.drawLine(Math.round(x1), Math.round(y1), Math.round(x2), Math.round(y2));
-		g.drawLine(Math.round(x3), Math.round(y3), Math.round(x2), Math.round(y2));
-		g.drawLine(Math.round(x4), Math.round(y4), Math.round(x2), Math.round(y2));
 	}
 
 }
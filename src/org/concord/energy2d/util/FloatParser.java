@@ -0,0 +1,127 @@
+/*
+ *   Copyright (C) 2012  The Concord Consortium, Inc.,
+ *   25 Love Lane, Concord, MA 01742
+ */
+
+package org.concord.energy2d.util;
+
+/**
+ * Parses numbers straight out of a character sequence, without splitting it or copying the numbers into strings first. A number with at most 18 significant digits and a small exponent, which is what Float.toString() writes, is converted exactly with a single floating-point operation; anything else is handed to Float.parseFloat(), so the result is always the same as what Float.parseFloat() returns for the text.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public final class FloatParser {
+
+	// the powers of ten that are exactly representable as doubles
+	private final static double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private FloatParser() {
+	}
+
+	/**
+	 * parse a list of n comma-separated numbers, which may be enclosed in parentheses, in the same way as Scripter.parseArray(int, String). Return null if the list does not have n numbers or if any of them cannot be parsed.
+	 */
+	public static float[] parseArray(int n, CharSequence s) {
+		int start = 0, end = s.length();
+		while (start < end && s.charAt(start) <= ' ')
+			start++;
+		while (end > start && s.charAt(end - 1) <= ' ')
+			end--;
+		if (start < end && s.charAt(start) == '(')
+			start++;
+		if (end > start && s.charAt(end - 1) == ')')
+			end--;
+		// like String.split(), ignore trailing empty entries
+		while (end > start && s.charAt(end - 1) == ',')
+			end--;
+		float[] x = new float[n];
+		int k = 0, comma;
+		for (int i = start; i <= end; i = comma + 1) {
+			comma = i;
+			while (comma < end && s.charAt(comma) != ',')
+				comma++;
+			if (k == n)
+				return null;
+			try {
+				x[k++] = parseFloat(s, i, comma);
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		return k == n ? x : null;
+	}
+
+	/** parse the number between start (inclusive) and end (exclusive), ignoring leading and trailing white space */
+	public static float parseFloat(CharSequence s, int start, int end) {
+		int i = start, e = end;
+		while (i < e && s.charAt(i) <= ' ')
+			i++;
+		while (e > i && s.charAt(e - 1) <= ' ')
+			e--;
+		boolean negative = false;
+		char c;
+		if (i < e && ((c = s.charAt(i)) == '-' || c == '+')) {
+			negative = c == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0, exponent = 0;
+		boolean point = false, number = false;
+		for (; i < e; i++) {
+			c = s.charAt(i);
+			if (c >= '0' && c <= '9') {
+				number = true;
+				if (mantissa != 0 || c != '0') {
+					if (++digits > 18)
+						return fallback(s, start, end);
+					mantissa = mantissa * 10 + (c - '0');
+				}
+				if (point)
+					exponent--;
+			} else if (c == '.' && !point) {
+				point = true;
+			} else {
+				break;
+			}
+		}
+		if (!number)
+			return fallback(s, start, end);
+		if (i < e && ((c = s.charAt(i)) == 'e' || c == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < e && ((c = s.charAt(i)) == '-' || c == '+')) {
+				negativeExponent = c == '-';
+				i++;
+			}
+			int power = 0, powerDigits = 0;
+			for (; i < e; i++) {
+				c = s.charAt(i);
+				if (c < '0' || c > '9' || ++powerDigits > 3)
+					break;
+				power = power * 10 + (c - '0');
+			}
+			if (powerDigits == 0 || powerDigits > 3)
+				return fallback(s, start, end);
+			exponent += negativeExponent ? -power : power;
+		}
+		if (i != e)
+			return fallback(s, start, end);
+		if (mantissa == 0)
+			return negative ? -0f : 0f;
+		if (mantissa >= 1L << 53 || exponent < -22 || exponent > 22)
+			return fallback(s, start, end);
+		// both operands are exact, so the result is the correctly rounded double
+		double d = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+		// rounding that double to a float again gives the correctly rounded float, unless it lies exactly halfway between two floats or outside the range of normal floats
+		if (d < Float.MIN_NORMAL || d > Float.MAX_VALUE || (Double.doubleToRawLongBits(d) & 0x1fffffffL) == 0x10000000L)
+			return fallback(s, start, end);
+		float f = (float) d;
+		return negative ? -f : f;
+	}
+
+	private static float fallback(CharSequence s, int start, int end) {
+		return Float.parseFloat(s.subSequence(start, end).toString());
+	}
+
+}
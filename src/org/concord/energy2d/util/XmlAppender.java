@@ -0,0 +1,189 @@
+/*
+ *   Copyright (C) 2012  The Concord Consortium, Inc.,
+ *   25 Love Lane, Concord, MA 01742
+ */
+
+package org.concord.energy2d.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Appends XML markup and values straight to a writer, so a document is written in linear time without being built as a string first. Numbers are formatted the same way as string concatenation formats them, into a buffer that is reused, so appending them does not allocate. Text and attribute values are escaped.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class XmlAppender {
+
+	private Writer out;
+	private StringBuilder number = new StringBuilder(32);
+	private char[] buffer = new char[32];
+
+	public XmlAppender(Writer out) {
+		this.out = out;
+	}
+
+	/** append markup as it is */
+	public XmlAppender append(String s) throws IOException {
+		out.write(s);
+		return this;
+	}
+
+	public XmlAppender append(char c) throws IOException {
+		out.write(c);
+		return this;
+	}
+
+	public XmlAppender append(float x) throws IOException {
+		number.setLength(0);
+		number.append(x);
+		return appendNumber();
+	}
+
+	public XmlAppender append(double x) throws IOException {
+		number.setLength(0);
+		number.append(x);
+		return appendNumber();
+	}
+
+	public XmlAppender append(int x) throws IOException {
+		number.setLength(0);
+		number.append(x);
+		return appendNumber();
+	}
+
+	public XmlAppender append(boolean b) throws IOException {
+		out.write(b ? "true" : "false");
+		return this;
+	}
+
+	private XmlAppender appendNumber() throws IOException {
+		int n = number.length();
+		if (buffer.length < n)
+			buffer = new char[n];
+		number.getChars(0, n, buffer, 0);
+		out.write(buffer, 0, n);
+		return this;
+	}
+
+	/** append a text or an attribute value, escaping the characters that would break the markup */
+	public XmlAppender appendEscaped(String s) throws IOException {
+		// as string concatenation would
+		if (s == null)
+			s = "null";
+		int start = 0;
+		String entity;
+		for (int i = 0, n = s.length(); i < n; i++) {
+			switch (s.charAt(i)) {
+			case '&':
+				entity = "&amp;";
+				break;
+			case '<':
+				entity = "&lt;";
+				break;
+			case '>':
+				entity = "&gt;";
+				break;
+			case '"':
+				entity = "&quot;";
+				break;
+			default:
+				continue;
+			}
+			out.write(s, start, i - start);
+			out.write(entity);
+			start = i + 1;
+		}
+		out.write(s, start, s.length() - start);
+		return this;
+	}
+
+	public XmlAppender attribute(String name, String value) throws IOException {
+		out.write(' ');
+		out.write(name);
+		out.write("=\"");
+		appendEscaped(value);
+		out.write('"');
+		return this;
+	}
+
+	public XmlAppender attribute(String name, float value) throws IOException {
+		out.write(' ');
+		out.write(name);
+		out.write("=\"");
+		append(value);
+		out.write('"');
+		return this;
+	}
+
+	public XmlAppender attribute(String name, double value) throws IOException {
+		out.write(' ');
+		out.write(name);
+		out.write("=\"");
+		append(value);
+		out.write('"');
+		return this;
+	}
+
+	public XmlAppender attribute(String name, int value) throws IOException {
+		out.write(' ');
+		out.write(name);
+		out.write("=\"");
+		append(value);
+		out.write('"');
+		return this;
+	}
+
+	public XmlAppender attribute(String name, boolean value) throws IOException {
+		out.write(' ');
+		out.write(name);
+		out.write("=\"");
+		append(value);
+		out.write('"');
+		return this;
+	}
+
+	/** append an element that contains only the given text, followed by a line break */
+	public XmlAppender element(String name, String value) throws IOException {
+		startTag(name);
+		appendEscaped(value);
+		return endTag(name);
+	}
+
+	public XmlAppender element(String name, float value) throws IOException {
+		startTag(name);
+		append(value);
+		return endTag(name);
+	}
+
+	public XmlAppender element(String name, int value) throws IOException {
+		startTag(name);
+		append(value);
+		return endTag(name);
+	}
+
+	public XmlAppender element(String name, boolean value) throws IOException {
+		startTag(name);
+		append(value);
+		return endTag(name);
+	}
+
+	private void startTag(String name) throws IOException {
+		out.write('<');
+		out.write(name);
+		out.write('>');
+	}
+
+	private XmlAppender endTag(String name) throws IOException {
+		out.write("</");
+		out.write(name);
+		out.write(">\n");
+		return this;
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+}
@@ -10,6 +10,9 @@ import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics2D;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
 
 import javax.swing.JComponent;
 
@@ -24,7 +27,14 @@ class ColorPalette {
 	private final static short[][] IRON_RGB = { { 40, 20, 100 }, { 80, 20, 150 }, { 150, 20, 150 }, { 200, 50, 120 }, { 220, 80, 80 }, { 230, 120, 30 }, { 240, 200, 20 }, { 240, 220, 80 }, { 255, 255, 125 }, { 250, 250, 250 }, { 255, 255, 255 } };
 	private final static short[][] GRAY_RGB = { { 50, 50, 50 }, { 75, 75, 75 }, { 100, 100, 100 }, { 125, 125, 125 }, { 150, 150, 150 }, { 175, 175, 175 }, { 200, 200, 200 }, { 225, 225, 225 }, { 250, 250, 250 }, { 255, 255, 255 } };
 
+	// the number of entries of a color lookup table
+	final static int LOOKUP_TABLE_SIZE = 4096;
+
 	private short[][] rgbScale;
+	private int[] lookupTable;
+	// the color bar, which only has to be painted again when its size changes
+	private BufferedImage barImage;
+	private int barWidth, barHeight;
 	private Font font = new Font(null, Font.PLAIN | Font.BOLD, 8);
 	// relative to the width and height of the view
 	private float rx, ry, rw, rh;
@@ -33,6 +43,28 @@ class ColorPalette {
 
 	ColorPalette(short[][] rgbScale) {
 		this.rgbScale = rgbScale;
+		lookupTable = createLookupTable(rgbScale);
+	}
+
+	/**
+	 * precompute the colors (packed ARGB) of the given color scale at evenly spaced positions from the first to the second last color stop, so that colorizing a value takes only an array lookup instead of a linear interpolation of three channels.
+	 */
+	static int[] createLookupTable(short[][] rgbScale) {
+		int[] lut = new int[LOOKUP_TABLE_SIZE];
+		int maxIndex = rgbScale.length - 2;
+		float delta = (float) maxIndex / (float) (LOOKUP_TABLE_SIZE - 1);
+		float v;
+		int iv, rc, gc, bc;
+		for (int k = 0; k < LOOKUP_TABLE_SIZE; k++) {
+			v = k * delta;
+			iv = Math.min((int) v, maxIndex);
+			v -= iv;
+			rc = (int) (rgbScale[iv][0] * (1 - v) + rgbScale[iv + 1][0] * v);
+			gc = (int) (rgbScale[iv][1] * (1 - v) + rgbScale[iv + 1][1] * v);
+			bc = (int) (rgbScale[iv][2] * (1 - v) + rgbScale[iv + 1][2] * v);
+			lut[k] = (255 << 24) | (rc << 16) | (gc << 8) | bc;
+		}
+		return lut;
 	}
 
 	static short[][] getRgbArray(byte type) {
@@ -60,17 +92,35 @@ class ColorPalette {
 	}
 
 	private int getColor(int i) {
-		float v = (float) i * (float) rgbScale.length / (float) Math.max(w, h);
-		if (v > rgbScale.length - 2)
-			v = rgbScale.length - 2;
-		else if (v < 0)
-			v = 0;
-		int iv = (int) v;
-		v -= iv;
-		int rc = (int) (rgbScale[iv][0] * (1 - v) + rgbScale[iv + 1][0] * v);
-		int gc = (int) (rgbScale[iv][1] * (1 - v) + rgbScale[iv + 1][1] * v);
-		int bc = (int) (rgbScale[iv][2] * (1 - v) + rgbScale[iv + 1][2] * v);
-		return (255 << 24) | (rc << 16) | (gc << 8) | bc;
+		int k = (int) ((float) i * (float) rgbScale.length / (float) Math.max(w, h) * (LOOKUP_TABLE_SIZE - 1) / (rgbScale.length - 2));
+		if (k >= LOOKUP_TABLE_SIZE)
+			k = LOOKUP_TABLE_SIZE - 1;
+		else if (k < 0)
+			k = 0;
+		return lookupTable[k];
+	}
+
+	// a vertical bar has a horizontal line for each color, and a horizontal bar a vertical line, both including the end points
+	private BufferedImage getBarImage() {
+		if (barImage == null || barWidth != w || barHeight != h) {
+			barWidth = w;
+			barHeight = h;
+			int width = h > w ? w + 1 : w;
+			int height = h > w ? h : h + 1;
+			barImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			int[] pixels = ((DataBufferInt) barImage.getRaster().getDataBuffer()).getData();
+			if (h > w) {
+				for (int i = 0; i < height; i++)
+					Arrays.fill(pixels, i * width, (i + 1) * width, getColor(i));
+			} else {
+				for (int i = 0; i < width; i++) {
+					int color = getColor(i);
+					for (int j = 0; j < height; j++)
+						pixels[j * width + i] = color;
+				}
+			}
+		}
+		return barImage;
 	}
 
 	void render(JComponent c, Graphics2D g, float max, float min) {
@@ -92,11 +142,8 @@ class ColorPalette {
 		}
 		Font oldFont = g.getFont();
 		g.setFont(font);
+		g.drawImage(getBarImage(), x, y, c);
 		if (h > w) {
-			for (int i = 0; i < h; i++) {
-				g.setColor(new Color(getColor(i)));
-				g.drawLine(x, y + i, x + w, y + i);
-			}
 			g.setColor(Color.white);
 			g.draw3DRect(x, y, w, h, true);
 			String s = null;
@@ -105,10 +152,6 @@ class ColorPalette {
 				g.drawString(s, x + w + 15, y + h * (float) i / (float) labelCount + 2.5f);
 			}
 		} else {
-			for (int i = 0; i < w; i++) {
-				g.setColor(new Color(getColor(i)));
-				g.drawLine(x + i, y, x + i, y + h);
-			}
 			g.setColor(Color.white);
 			g.draw3DRect(x, y, w, h, true);
 			String s = null;
@@ -0,0 +1,214 @@
+/*
+ *   Copyright (C) 2011  The Concord Consortium, Inc.,
+ *   25 Love Lane, Concord, MA 01742
+ */
+
+package org.concord.energy2d.view;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.concord.energy2d.event.VisualizationEvent;
+import org.concord.energy2d.event.VisualizationListener;
+import org.concord.energy2d.model.Model2D;
+
+/**
+ * This exporter renders the model into offscreen images with a view of its own, which is never displayed and can therefore be used in a headless environment, and writes them as a sequence of numbered frames for making videos. Frames are taken on the simulation thread at the first visualization update at least the given number of steps after the last frame, and encoded and written by a pool of background threads. At most a few frames can be waiting to be written, after which the simulation waits for the writers.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class FrameExporter implements VisualizationListener {
+
+	public final static byte PNG = 0;
+	// raw 24-bit RGB pixels, row by row, which video encoders can read directly
+	public final static byte RAW = 1;
+
+	private final static int WRITER_COUNT = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+	private final static int MAXIMUM_PENDING_FRAMES = 2 * WRITER_COUNT;
+
+	private Model2D model;
+	private View2D view;
+	private int width, height;
+	private File directory;
+	private String prefix = "frame";
+	private byte format = PNG;
+	private int interval = 100;
+	private int lastStep = -1;
+	private int frameIndex;
+	private ExecutorService writerService;
+	private Semaphore pendingFrames = new Semaphore(MAXIMUM_PENDING_FRAMES);
+	private ConcurrentLinkedQueue<BufferedImage> imagePool = new ConcurrentLinkedQueue<BufferedImage>();
+
+	public FrameExporter(Model2D model, int width, int height, File directory) {
+		this.model = model;
+		this.width = width;
+		this.height = height;
+		this.directory = directory;
+		view = new View2D();
+		view.setModel(model);
+		view.setSize(width, height);
+	}
+
+	/** @return the view that draws the frames, which can be set up like the one on the screen */
+	public View2D getView() {
+		return view;
+	}
+
+	/** set the minimum number of steps between two frames */
+	public void setInterval(int interval) {
+		this.interval = interval;
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+
+	public void setFormat(byte format) {
+		this.format = format;
+	}
+
+	public byte getFormat() {
+		return format;
+	}
+
+	public void setPrefix(String prefix) {
+		this.prefix = prefix;
+	}
+
+	public String getPrefix() {
+		return prefix;
+	}
+
+	public int getFrameCount() {
+		return frameIndex;
+	}
+
+	/** start taking frames as the model runs */
+	public void start() {
+		lastStep = -1;
+		model.addVisualizationListener(this);
+	}
+
+	/** stop taking frames and wait until all the frames taken so far have been written */
+	public void stop() {
+		model.removeVisualizationListener(this);
+		flush();
+	}
+
+	public void visualizationRequested(VisualizationEvent e) {
+		int step = model.getIndexOfStep();
+		if (lastStep < 0 || step - lastStep >= interval) {
+			lastStep = step;
+			exportFrame();
+		}
+	}
+
+	/** render the current state of the model and queue the frame for writing */
+	public void exportFrame() {
+		BufferedImage image = imagePool.poll();
+		if (image == null)
+			image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		view.setArea(0, model.getLx(), 0, model.getLy());
+		view.setTime(model.getTime());
+		Graphics2D g = image.createGraphics();
+		view.paintOffscreen(g);
+		g.dispose();
+		final BufferedImage frame = image;
+		final File file = new File(directory, String.format("%s%06d.%s", prefix, frameIndex++, format == RAW ? "raw" : "png"));
+		try {
+			pendingFrames.acquire();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			return;
+		}
+		getWriterService().execute(new Runnable() {
+			public void run() {
+				try {
+					write(frame, file);
+				} catch (IOException e) {
+					e.printStackTrace();
+				} finally {
+					imagePool.offer(frame);
+					pendingFrames.release();
+				}
+			}
+		});
+	}
+
+	/** wait until all the frames taken so far have been written */
+	public void flush() {
+		try {
+			pendingFrames.acquire(MAXIMUM_PENDING_FRAMES);
+			pendingFrames.release(MAXIMUM_PENDING_FRAMES);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/** write the remaining frames and release the writer threads */
+	public void shutdown() {
+		stop();
+		if (writerService != null) {
+			writerService.shutdown();
+			try {
+				writerService.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+			writerService = null;
+		}
+	}
+
+	private void write(BufferedImage image, File file) throws IOException {
+		if (format == RAW) {
+			int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+			byte[] row = new byte[3 * width];
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+			try {
+				int p;
+				for (int j = 0; j < height; j++) {
+					for (int i = 0, k = 0; i < width; i++) {
+						p = pixels[j * width + i];
+						row[k++] = (byte) (p >> 16);
+						row[k++] = (byte) (p >> 8);
+						row[k++] = (byte) p;
+					}
+					out.write(row);
+				}
+			} finally {
+				out.close();
+			}
+		} else {
+			ImageIO.write(image, "png", file);
+		}
+	}
+
+	private synchronized ExecutorService getWriterService() {
+		if (writerService == null) {
+			writerService = Executors.newFixedThreadPool(WRITER_COUNT, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Frame Writer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return writerService;
+	}
+
+}
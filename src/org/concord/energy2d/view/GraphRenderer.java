@@ -11,12 +11,17 @@ import java.awt.Font;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.Stroke;
+import java.awt.geom.Path2D;
 import java.text.DecimalFormat;
-import java.util.List;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
 
 import javax.swing.JComponent;
 
-import org.concord.energy2d.model.TimedData;
+import org.concord.energy2d.model.SensorArchive;
+import org.concord.energy2d.model.TimeSeries;
 
 /**
  * @author Charles Xie
@@ -48,6 +53,10 @@ class GraphRenderer {
 	private Rectangle xExpandButton, xShrinkButton;
 	private Rectangle yExpandButton, yShrinkButton;
 	private String xLabel = View2D.DEFAULT_XLABEL, yLabel = View2D.DEFAULT_YLABEL;
+	// the decimated curves of the time series drawn, which are updated with only the new samples at each repaint
+	private Map<TimeSeries, Curve> curves = new IdentityHashMap<TimeSeries, Curve>();
+	// counts the frames, which start with the drawing of the frame of the graph, so that the curves of the series no longer drawn can be dropped
+	private int frame;
 
 	GraphRenderer(int x, int y, int w, int h) {
 		closeButton = new Rectangle();
@@ -161,13 +170,20 @@ class GraphRenderer {
 		g.drawString(s, x - stringWidth / 2, y);
 	}
 
-	void render(JComponent c, Graphics2D g, List<TimedData> data, String label, boolean highlight) {
+	void render(JComponent c, Graphics2D g, TimeSeries data, String label, boolean highlight) {
 
 		if (!c.isVisible())
 			return;
 
 		if (drawFrame) {
 
+			// the curves that were not drawn in the last frame belong to removed sensors
+			frame++;
+			for (Iterator<Curve> i = curves.values().iterator(); i.hasNext();) {
+				if (i.next().frame < frame - 1)
+					i.remove();
+			}
+
 			// draw graph canvas
 			g.setColor(bgColor);
 			g.fillRoundRect(x - 10, y - 10, w + 20, h + 20, 20, 20);
@@ -270,39 +286,152 @@ class GraphRenderer {
 
 		}
 
-		g.setStroke(curveStroke);
-		g.setColor(highlight ? Color.yellow : fgColor);
-
-		int n = data.size();
-		if (n > 0) {
-			int m = Math.max(1, (int) (n / w));
-			TimedData d = data.get(0);
-			float t1 = d.getTime();
-			float v1 = d.getValue();
-			float t2, v2;
-			int x1 = 0, y1 = 0, x2 = 0, y2 = 0;
-			float scaleX = w / xmax;
-			float scaleY = h / (ymax - ymin);
-			synchronized (data) {
-				for (int i = m; i < n - m; i += m) {
-					x1 = (int) (x + t1 * scaleX);
-					y1 = (int) (y + h - (v1 - ymin) * scaleY);
-					if (x1 > x + w)
-						break;
-					d = data.get(i);
-					t2 = d.getTime();
-					v2 = d.getValue();
-					x2 = (int) (x + t2 * scaleX);
-					y2 = (int) (y + h - (v2 - ymin) * scaleY);
-					g.drawLine(x1, y1, x2, y2);
-					t1 = t2;
-					v1 = v2;
-				}
-			}
+		Curve curve = curves.get(data);
+		if (curve == null) {
+			curve = new Curve();
+			curves.put(data, curve);
+		}
+		curve.frame = frame;
+		curve.update(data);
+		Path2D.Float path = curve.getPath();
+		if (path != null) {
+			g.setStroke(curveStroke);
+			g.setColor(highlight ? Color.yellow : fgColor);
+			g.draw(path);
 			if (label != null) {
 				g.setFont(labelFont);
-				g.drawString(label, x2 + 5, y2);
+				g.drawString(label, curve.labelX + 5, curve.labelY);
+			}
+		}
+	}
+
+	/*
+	 * A curve keeps the first, last, minimum and maximum values of the samples that fall into each pixel column of the graph, so drawing it takes a polyline of at most four vertices per column no matter how long the series is. New samples are read through a cursor of the series and added to the columns as they arrive; only a change of the horizontal scale requires all the samples to be binned again.
+	 */
+	private class Curve {
+
+		private int columns;
+		private float columnScale;
+		private boolean[] filled;
+		private float[] first, last, min, max;
+		private int lastColumn = -1;
+		// the last frame this curve was drawn in
+		private int frame;
+		// reads the samples added since the last update
+		private TimeSeries.Cursor cursor;
+
+		// the cached polyline, valid as long as the columns and the vertical mapping have not changed
+		private Path2D.Float path;
+		private boolean pathValid;
+		private int pathX, pathY, pathH;
+		private float pathYmin, pathYmax;
+		private int labelX, labelY;
+
+		void update(TimeSeries data) {
+			float scale = w / xmax;
+			boolean rebin = cursor == null || columns != w || columnScale != scale;
+			if (rebin) {
+				columns = w;
+				columnScale = scale;
+				filled = new boolean[columns];
+				first = new float[columns];
+				last = new float[columns];
+				min = new float[columns];
+				max = new float[columns];
+				lastColumn = -1;
+				pathValid = false;
+				cursor = data.createCursor();
+			}
+			int count = cursor.read();
+			if (cursor.wasCleared())
+				clear();
+			// the samples that have been pushed out of memory are only read back when all the columns are binned again
+			SensorArchive archive = data.getArchive();
+			if (rebin && archive != null)
+				addArchived(archive, count > 0 ? cursor.getTime(0) : Float.POSITIVE_INFINITY);
+			for (int i = 0; i < count; i++)
+				add(cursor.getTime(i), cursor.getValue(i));
+		}
+
+		private void addArchived(SensorArchive archive, float before) {
+			float[] t = new float[1024];
+			float[] v = new float[1024];
+			float from = Float.NEGATIVE_INFINITY;
+			int n;
+			do {
+				n = archive.read(from, Float.MAX_VALUE, t, v);
+				for (int i = 0; i < n; i++) {
+					if (t[i] >= before)
+						return;
+					add(t[i], v[i]);
+				}
+				if (n > 0)
+					from = Math.nextUp(t[n - 1]);
+			} while (n == t.length);
+		}
+
+		private void add(float t, float v) {
+			int c = (int) (t * columnScale);
+			if (c < 0 || c >= columns)
+				return;
+			if (filled[c]) {
+				last[c] = v;
+				if (v < min[c])
+					min[c] = v;
+				else if (v > max[c])
+					max[c] = v;
+			} else {
+				filled[c] = true;
+				first[c] = last[c] = min[c] = max[c] = v;
+			}
+			lastColumn = c;
+			pathValid = false;
+		}
+
+		private void clear() {
+			Arrays.fill(filled, false);
+			lastColumn = -1;
+			pathValid = false;
+		}
+
+		Path2D.Float getPath() {
+			if (lastColumn < 0)
+				return null;
+			if (pathValid && pathX == x && pathY == y && pathH == h && pathYmin == ymin && pathYmax == ymax)
+				return path;
+			if (path == null)
+				path = new Path2D.Float();
+			else
+				path.reset();
+			float scaleY = h / (ymax - ymin);
+			float base = y + h + ymin * scaleY;
+			boolean started = false;
+			int px;
+			for (int c = 0; c <= lastColumn; c++) {
+				if (!filled[c])
+					continue;
+				px = x + c;
+				if (started) {
+					path.lineTo(px, base - first[c] * scaleY);
+				} else {
+					path.moveTo(px, base - first[c] * scaleY);
+					started = true;
+				}
+				if (min[c] != max[c]) {
+					path.lineTo(px, base - min[c] * scaleY);
+					path.lineTo(px, base - max[c] * scaleY);
+					path.lineTo(px, base - last[c] * scaleY);
+				}
 			}
+			labelX = x + lastColumn;
+			labelY = (int) (base - last[lastColumn] * scaleY);
+			pathX = x;
+			pathY = y;
+			pathH = h;
+			pathYmin = ymin;
+			pathYmax = ymax;
+			pathValid = true;
+			return path;
 		}
 
 	}
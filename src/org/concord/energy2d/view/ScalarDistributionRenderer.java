@@ -7,7 +7,15 @@ package org.concord.energy2d.view;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.JComponent;
 
@@ -17,20 +25,37 @@ import javax.swing.JComponent;
  */
 class ScalarDistributionRenderer {
 
-	private final static int ERROR_PIXEL = -16777216;
+	private final static int THREAD_COUNT = Math.min(4, Runtime.getRuntime().availableProcessors());
+	private final static int MINIMUM_ROWS_PER_BAND = 64;
+	private static ExecutorService renderService;
 	private BufferedImage image;
 	private int[] pixels;
+	private int[] i0, i1;
+	private float[] s1;
+	// the size of the image, which differs from the size of the view when rendering at grid resolution
 	private int w, h;
+	private int viewWidth, viewHeight;
+	// if positive, colorize at this multiple of the grid resolution and let Java2D scale the image to the view
+	private int gridResolution;
 	private float min = 0, max = 40;
 	private float scale;
 	private short[][] rgbScale;
+	private int[] lookupTable;
+	// maps a value to an index of the lookup table
+	private float lookupScale;
 	private boolean smooth = true;
 
 	ScalarDistributionRenderer(short[][] rgbScale, float min, float max) {
 		this.rgbScale = rgbScale;
 		this.min = min;
 		this.max = max;
+		lookupTable = ColorPalette.createLookupTable(rgbScale);
+		setScale();
+	}
+
+	private void setScale() {
 		scale = rgbScale.length / (max - min);
+		lookupScale = scale * (ColorPalette.LOOKUP_TABLE_SIZE - 1) / (rgbScale.length - 2);
 	}
 
 	void setSmooth(boolean smooth) {
@@ -41,9 +66,20 @@ class ScalarDistributionRenderer {
 		return smooth;
 	}
 
+	/**
+	 * If the multiple is positive, the distribution is colorized into an image of that multiple of the grid size, which is then scaled to the view by Java2D, so the cost of a frame depends on the grid size instead of the window size. Zero colorizes every pixel of the view.
+	 */
+	void setGridResolution(int multiple) {
+		gridResolution = Math.max(0, multiple);
+	}
+
+	int getGridResolution() {
+		return gridResolution;
+	}
+
 	void setMaximum(float max) {
 		this.max = max;
-		scale = rgbScale.length / (max - min);
+		setScale();
 	}
 
 	float getMaximum() {
@@ -52,7 +88,7 @@ class ScalarDistributionRenderer {
 
 	void setMinimum(float min) {
 		this.min = min;
-		scale = rgbScale.length / (max - min);
+		setScale();
 	}
 
 	float getMinimum() {
@@ -62,6 +98,10 @@ class ScalarDistributionRenderer {
 	int getRGB(int x, int y) {
 		if (image == null)
 			return Color.white.getRGB();
+		if (w != viewWidth)
+			x = x * w / viewWidth;
+		if (h != viewHeight)
+			y = y * h / viewHeight;
 		if (x >= image.getWidth())
 			x = image.getWidth() - 1;
 		if (x < 0)
@@ -74,94 +114,59 @@ class ScalarDistributionRenderer {
 	}
 
 	int getColor(float value) {
-		float v = (value - min) * scale;
-		if (v > rgbScale.length - 2)
-			v = rgbScale.length - 2;
-		else if (v < 0)
-			v = 0;
-		int iv = (int) v;
-		v -= iv;
-		int rc = (int) (rgbScale[iv][0] * (1 - v) + rgbScale[iv + 1][0] * v);
-		int gc = (int) (rgbScale[iv][1] * (1 - v) + rgbScale[iv + 1][1] * v);
-		int bc = (int) (rgbScale[iv][2] * (1 - v) + rgbScale[iv + 1][2] * v);
-		return (255 << 24) | (rc << 16) | (gc << 8) | bc;
+		int k = (int) ((value - min) * lookupScale);
+		if (k >= ColorPalette.LOOKUP_TABLE_SIZE)
+			k = ColorPalette.LOOKUP_TABLE_SIZE - 1;
+		else if (k < 0)
+			k = 0;
+		return lookupTable[k];
 	}
 
 	void render(View2D view, Graphics2D g, float[][] distribution) {
 		if (!view.isVisible())
 			return;
 
-		w = view.getWidth();
-		h = view.getHeight();
-		createImage(w, h, view);
-
+		viewWidth = view.getWidth();
+		viewHeight = view.getHeight();
 		int m = distribution.length;
 		int n = distribution[0].length;
+		if (gridResolution > 0) {
+			w = Math.min(viewWidth, m * gridResolution);
+			h = Math.min(viewHeight, n * gridResolution);
+		} else {
+			w = viewWidth;
+			h = viewHeight;
+		}
+		createImage(w, h, view);
 
+		// the horizontal interpolation weights are the same for every row
 		float dx = (float) m / (float) w;
-		float dy = (float) n / (float) h;
-		float x, y;
-
-		int rc = 0, gc = 0, bc = 0, iv;
-		float v;
-
-		if (smooth) {
-			int i0, j0, i1, j1;
-			float s0, s1, t0, t1;
-			for (int i = 0; i < w; i++) {
-				x = i * dx;
-				i0 = (int) x;
-				i1 = i0 + 1;
-				if (i1 > m - 1)
-					i1 = m - 1;
-				s1 = x - i0;
-				s0 = 1 - s1;
-				for (int j = 0; j < h; j++) {
-					y = j * dy;
-					j0 = (int) y;
-					j1 = j0 + 1;
-					if (j1 > n - 1)
-						j1 = n - 1;
-					t1 = y - j0;
-					t0 = 1 - t1;
-					v = (s0 * (t0 * distribution[i0][j0] + t1 * distribution[i0][j1]) + s1 * (t0 * distribution[i1][j0] + t1 * distribution[i1][j1]) - min) * scale;
-					if (v > rgbScale.length - 2)
-						v = rgbScale.length - 2;
-					else if (v < 0)
-						v = 0;
-					iv = (int) v;
-					v -= iv;
-					rc = (int) (rgbScale[iv][0] * (1 - v) + rgbScale[iv + 1][0] * v);
-					gc = (int) (rgbScale[iv][1] * (1 - v) + rgbScale[iv + 1][1] * v);
-					bc = (int) (rgbScale[iv][2] * (1 - v) + rgbScale[iv + 1][2] * v);
-					pixels[i + j * w] = (255 << 24) | (rc << 16) | (gc << 8) | bc;
-				}
-			}
+		float x;
+		for (int i = 0; i < w; i++) {
+			x = i * dx;
+			i0[i] = (int) x;
+			i1[i] = Math.min(i0[i] + 1, m - 1);
+			s1[i] = x - i0[i];
+		}
+
+		int bandCount = Math.min(THREAD_COUNT, h / MINIMUM_ROWS_PER_BAND);
+		if (bandCount <= 1) {
+			renderRows(distribution, 0, h);
 		} else {
-			int i0, j0;
-			for (int i = 0; i < w; i++) {
-				i0 = (int) (i * dx);
-				for (int j = 0; j < h; j++) {
-					j0 = (int) (j * dy);
-					v = (distribution[i0][j0] - min) * scale;
-					if (v > rgbScale.length - 2)
-						v = rgbScale.length - 2;
-					else if (v < 0)
-						v = 0;
-					iv = (int) v;
-					v -= iv;
-					rc = (int) (rgbScale[iv][0] * (1 - v) + rgbScale[iv + 1][0] * v);
-					gc = (int) (rgbScale[iv][1] * (1 - v) + rgbScale[iv + 1][1] * v);
-					bc = (int) (rgbScale[iv][2] * (1 - v) + rgbScale[iv + 1][2] * v);
-					pixels[i + j * w] = (255 << 24) | (rc << 16) | (gc << 8) | bc;
-				}
+			List<Callable<Object>> bands = new ArrayList<Callable<Object>>(bandCount);
+			int rows = h / bandCount;
+			for (int k = 0; k < bandCount; k++)
+				bands.add(Executors.callable(new Band(distribution, k * rows, k == bandCount - 1 ? h : (k + 1) * rows)));
+			try {
+				getRenderService().invokeAll(bands);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
 			}
 		}
 
-		image.setRGB(0, 0, w, h, pixels, 0, w);
-		g.drawImage(image, 0, 0, view);
+		draw(view, g);
 
-		if (pixels[pixels.length / 2] == ERROR_PIXEL) {
+		if (Float.isNaN(distribution[m / 2][n / 2])) {
 			view.setErrorMessage("FATAL ERROR!");
 		} else {
 			view.setErrorMessage(null);
@@ -169,15 +174,108 @@ class ScalarDistributionRenderer {
 
 	}
 
-	private void createImage(int w, int h, JComponent c) {
-		if (image != null) {
-			if (w != image.getWidth(c) || h != image.getHeight(c)) {
-				image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
-				pixels = new int[w * h];
-			}
+	/** draw the image colorized by the last call of render, without colorizing it again */
+	void draw(View2D view, Graphics2D g) {
+		if (image == null)
+			return;
+		if (w == viewWidth && h == viewHeight) {
+			g.drawImage(image, 0, 0, view);
 		} else {
-			image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
-			pixels = new int[w * h];
+			Object oldHint = g.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, smooth ? RenderingHints.VALUE_INTERPOLATION_BILINEAR : RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+			g.drawImage(image, 0, 0, viewWidth, viewHeight, view);
+			if (oldHint != null)
+				g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, oldHint);
+		}
+	}
+
+	private class Band implements Runnable {
+
+		private float[][] distribution;
+		private int start, end;
+
+		Band(float[][] distribution, int start, int end) {
+			this.distribution = distribution;
+			this.start = start;
+			this.end = end;
+		}
+
+		public void run() {
+			renderRows(distribution, start, end);
+		}
+
+	}
+
+	// fill the rows from start (inclusive) to end (exclusive) of the image raster directly
+	private void renderRows(float[][] distribution, int start, int end) {
+
+		int n = distribution[0].length;
+		float dy = (float) n / (float) h;
+		float y, s;
+		int k, offset;
+		int j0, j1;
+		float t0, t1;
+		int maxIndex = ColorPalette.LOOKUP_TABLE_SIZE - 1;
+		int[] lut = lookupTable;
+		float offsetValue = min;
+		float factor = lookupScale;
+
+		for (int j = start; j < end; j++) {
+			y = j * dy;
+			j0 = (int) y;
+			offset = j * w;
+			if (smooth) {
+				j1 = j0 + 1;
+				if (j1 > n - 1)
+					j1 = n - 1;
+				t1 = y - j0;
+				t0 = 1 - t1;
+				for (int i = 0; i < w; i++) {
+					s = s1[i];
+					k = (int) (((1 - s) * (t0 * distribution[i0[i]][j0] + t1 * distribution[i0[i]][j1]) + s * (t0 * distribution[i1[i]][j0] + t1 * distribution[i1[i]][j1]) - offsetValue) * factor);
+					if (k > maxIndex)
+						k = maxIndex;
+					else if (k < 0)
+						k = 0;
+					pixels[offset + i] = lut[k];
+				}
+			} else {
+				for (int i = 0; i < w; i++) {
+					k = (int) ((distribution[i0[i]][j0] - offsetValue) * factor);
+					if (k > maxIndex)
+						k = maxIndex;
+					else if (k < 0)
+						k = 0;
+					pixels[offset + i] = lut[k];
+				}
+			}
+		}
+
+	}
+
+	private static synchronized ExecutorService getRenderService() {
+		if (renderService == null) {
+			renderService = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Heat Map Renderer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return renderService;
+	}
+
+	/*
+	 * The image is opaque so that drawing it does not require alpha blending, and its raster is written to directly so that no intermediate pixel array has to be copied into it.
+	 */
+	private void createImage(int w, int h, JComponent c) {
+		if (image == null || w != image.getWidth(c) || h != image.getHeight(c)) {
+			image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+			pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+			i0 = new int[w];
+			i1 = new int[w];
+			s1 = new float[w];
 		}
 	}
 
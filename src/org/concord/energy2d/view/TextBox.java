@@ -7,6 +7,9 @@ package org.concord.energy2d.view;
 
 import java.awt.Color;
 import java.awt.Font;
+import java.io.IOException;
+
+import org.concord.energy2d.util.XmlAppender;
 
 /**
  * @author Charles Xie
@@ -87,16 +90,16 @@ public class TextBox {
 		return color;
 	}
 
-	public String toXml() {
-		String xml = "<text";
-		xml += " string=\"" + str + "\"";
-		xml += " name=\"" + name + "\"";
-		xml += " size=\"" + size + "\"";
-		xml += " style=\"" + style + "\"";
-		xml += " color=\"" + Integer.toHexString(0x00ffffff & getColor().getRGB()) + "\"";
-		xml += " x=\"" + getX() + "\"";
-		xml += " y=\"" + getY() + "\"/>\n";
-		return xml;
+	public void toXml(XmlAppender out) throws IOException {
+		out.append("<text");
+		out.attribute("string", str);
+		out.attribute("name", name);
+		out.attribute("size", size);
+		out.attribute("style", style);
+		out.attribute("color", Integer.toHexString(0x00ffffff & getColor().getRGB()));
+		out.attribute("x", getX());
+		out.attribute("y", getY());
+		out.append("/>\n");
 	}
 
 }
@@ -47,7 +47,9 @@ class ThermometerDialog extends JDialog {
 	private JRadioButton onePointButton;
 	private JRadioButton fivePointsButton;
 	private JRadioButton ninePointsButton;
+	private JRadioButton bilinearButton;
 	private JCheckBox thermostatCheckBox;
+	private JCheckBox archiveCheckBox;
 
 	ThermometerDialog(final View2D view, final Thermometer thermometer, boolean modal) {
 
@@ -82,6 +84,8 @@ class ThermometerDialog extends JDialog {
 					thermometer.setStencil(Thermometer.FIVE_POINT);
 				else if (ninePointsButton.isSelected())
 					thermometer.setStencil(Thermometer.NINE_POINT);
+				else if (bilinearButton.isSelected())
+					thermometer.setStencil(Thermometer.BILINEAR);
 
 				if (thermostatCheckBox.isSelected()) {
 					thermometer.setThermostat(true);
@@ -93,6 +97,8 @@ class ThermometerDialog extends JDialog {
 					thermometer.setThermostat(false);
 				}
 
+				thermometer.setArchived(archiveCheckBox.isSelected());
+
 				view.notifyManipulationListeners(null, ManipulationEvent.PROPERTY_CHANGE);
 				view.repaint();
 				dispose();
@@ -156,7 +162,14 @@ class ThermometerDialog extends JDialog {
 		p.add(ninePointsButton);
 		bg.add(ninePointsButton);
 
+		bilinearButton = new JRadioButton("Bilinear");
+		p.add(bilinearButton);
+		bg.add(bilinearButton);
+
 		switch (thermometer.getStencil()) {
+		case 4:
+			bilinearButton.setSelected(true);
+			break;
 		case 5:
 			fivePointsButton.setSelected(true);
 			break;
@@ -167,6 +180,16 @@ class ThermometerDialog extends JDialog {
 			onePointButton.setSelected(true);
 		}
 
+		// readings
+
+		p = new JPanel(new FlowLayout(FlowLayout.LEFT));
+		p.setBorder(BorderFactory.createTitledBorder("Readings"));
+		box.add(p);
+
+		archiveCheckBox = new JCheckBox("Keep the readings that no longer fit in memory in a file");
+		archiveCheckBox.setSelected(thermometer.isArchived());
+		p.add(archiveCheckBox);
+
 		// thermostat properties
 
 		thermostatPanel = new JPanel(new SpringLayout());
@@ -9,10 +9,13 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Stroke;
+import java.awt.geom.Path2D;
 
 import javax.swing.JComponent;
 
 /**
+ * Arrows are collected into paths by their contrast color, quantized to three bits per channel, so that a dense field is drawn with only as many draw calls as there are distinct colors.
+ * 
  * @author Charles Xie
  * 
  */
@@ -20,6 +23,17 @@ class VectorDistributionRenderer {
 
 	private final static float COS = (float) Math.cos(Math.toRadians(30));
 	private final static float SIN = (float) Math.sin(Math.toRadians(30));
+	private final static int LEVELS = 8;
+	private final static Color[] COLORS = new Color[LEVELS * LEVELS * LEVELS];
+	static {
+		for (int r = 0; r < LEVELS; r++) {
+			for (int g = 0; g < LEVELS; g++) {
+				for (int b = 0; b < LEVELS; b++) {
+					COLORS[(r * LEVELS + g) * LEVELS + b] = new Color(Math.round(r * 255f / (LEVELS - 1)), Math.round(g * 255f / (LEVELS - 1)), Math.round(b * 255f / (LEVELS - 1)), 200);
+				}
+			}
+		}
+	}
 
 	private Stroke stroke = new BasicStroke(1);
 	private int nx;
@@ -27,6 +41,7 @@ class VectorDistributionRenderer {
 	private int spacing = 4;
 	private float scale = 100;
 	private View2D view;
+	private Path2D.Float[] paths = new Path2D.Float[COLORS.length];
 
 	VectorDistributionRenderer(View2D view, int nx, int ny) {
 		this.nx = nx;
@@ -46,21 +61,45 @@ class VectorDistributionRenderer {
 		return spacing;
 	}
 
-	void drawVector(Graphics2D g, int x, int y, float vx, float vy, float scale) {
+	private void addVector(Path2D.Float path, int x, int y, float vx, float vy, float scale) {
 		float r = 1f / (float) Math.hypot(vx, vy);
 		float arrowx = vx * r;
 		float arrowy = vy * r;
 		r = ((BasicStroke) stroke).getLineWidth();
 		float x1 = x + arrowx * (6 + r * 2) + vx * scale;
 		float y1 = y + arrowy * (6 + r * 2) + vy * scale;
-		g.drawLine(x, y, Math.round(x1), Math.round(y1));
+		int ix1 = Math.round(x1);
+		int iy1 = Math.round(y1);
+		path.moveTo(x, y);
+		path.lineTo(ix1, iy1);
 		r = 4;
 		float wingx = r * (arrowx * COS + arrowy * SIN);
 		float wingy = r * (arrowy * COS - arrowx * SIN);
-		g.drawLine(Math.round(x1), Math.round(y1), Math.round(x1 - wingx), Math.round(y1 - wingy));
+		path.lineTo(Math.round(x1 - wingx), Math.round(y1 - wingy));
 		wingx = r * (arrowx * COS - arrowy * SIN);
 		wingy = r * (arrowy * COS + arrowx * SIN);
-		g.drawLine(Math.round(x1), Math.round(y1), Math.round(x1 - wingx), Math.round(y1 - wingy));
+		path.moveTo(ix1, iy1);
+		path.lineTo(Math.round(x1 - wingx), Math.round(y1 - wingy));
+	}
+
+	// the path for the arrows drawn at the given pixel, selected by the quantized contrast color
+	private Path2D.Float getPath(int x, int y) {
+		int rgb = view.getContrastRGB(x, y);
+		int index = (((rgb >> 21) & 7) * LEVELS + ((rgb >> 13) & 7)) * LEVELS + ((rgb >> 5) & 7);
+		if (paths[index] == null)
+			paths[index] = new Path2D.Float();
+		return paths[index];
+	}
+
+	private void drawPaths(Graphics2D g) {
+		g.setStroke(stroke);
+		for (int i = 0; i < paths.length; i++) {
+			if (paths[i] != null && paths[i].getCurrentPoint() != null) {
+				g.setColor(COLORS[i]);
+				g.draw(paths[i]);
+				paths[i].reset();
+			}
+		}
 	}
 
 	void renderVectors(float[][] u, float[][] v, JComponent c, Graphics2D g) {
@@ -73,10 +112,8 @@ class VectorDistributionRenderer {
 		float dx = (float) w / (float) nx;
 		float dy = (float) h / (float) ny;
 
-		g.setStroke(stroke);
 		int x, y;
 		float uij, vij;
-		Color color = null;
 		for (int i = 1; i < nx - 1; i += spacing) {
 			x = Math.round(i * dx);
 			for (int j = 1; j < ny - 1; j += spacing) {
@@ -84,13 +121,11 @@ class VectorDistributionRenderer {
 				uij = u[i][j];
 				vij = v[i][j];
 				if (uij * uij + vij * vij > 0.0000000001f) {
-					color = view.getContrastColor(x, y);
-					color = new Color(color.getRed(), color.getGreen(), color.getBlue(), 200);
-					g.setColor(color);
-					drawVector(g, x, y, uij, vij, scale);
+					addVector(getPath(x, y), x, y, uij, vij, scale);
 				}
 			}
 		}
+		drawPaths(g);
 
 	}
 
@@ -105,10 +140,8 @@ class VectorDistributionRenderer {
 		float dx = (float) w / (float) nx;
 		float dy = (float) h / (float) ny;
 
-		g.setStroke(stroke);
 		int x, y;
 		float uij, vij;
-		Color color = null;
 		for (int i = 1; i < nx - 1; i += spacing) {
 			x = Math.round(i * dx);
 			for (int j = 1; j < ny - 1; j += spacing) {
@@ -116,13 +149,11 @@ class VectorDistributionRenderer {
 				uij = -k[i][j] * (t[i + 1][j] - t[i - 1][j]) / (2 * dx);
 				vij = -k[i][j] * (t[i][j + 1] - t[i][j - 1]) / (2 * dy);
 				if (uij * uij + vij * vij > 0.00000001f) {
-					color = view.getContrastColor(x, y);
-					color = new Color(color.getRed(), color.getGreen(), color.getBlue(), 200);
-					g.setColor(color);
-					drawVector(g, x, y, uij, vij, scale);
+					addVector(getPath(x, y), x, y, uij, vij, scale);
 				}
 			}
 		}
+		drawPaths(g);
 
 	}
 }
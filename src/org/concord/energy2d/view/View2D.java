@@ -5,6 +5,7 @@
 
 package org.concord.energy2d.view;
 
+import java.awt.AlphaComposite;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Cursor;
@@ -20,6 +21,7 @@ import java.awt.RenderingHints;
 import java.awt.Shape;
 import java.awt.Stroke;
 import java.awt.SystemColor;
+import java.awt.TexturePaint;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ComponentAdapter;
@@ -32,6 +34,7 @@ import java.awt.event.MouseMotionAdapter;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
 import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.geom.RectangularShape;
@@ -41,7 +44,9 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -62,10 +67,13 @@ import org.concord.energy2d.event.GraphListener;
 import org.concord.energy2d.event.ManipulationEvent;
 import org.concord.energy2d.event.ManipulationListener;
 import org.concord.energy2d.math.Polygon2D;
+import org.concord.energy2d.model.FieldStatistics;
+import org.concord.energy2d.model.HeatFluxSensor;
 import org.concord.energy2d.model.Manipulable;
 import org.concord.energy2d.model.Model2D;
 import org.concord.energy2d.model.Part;
 import org.concord.energy2d.model.Photon;
+import org.concord.energy2d.model.RegionSensor;
 import org.concord.energy2d.model.Thermometer;
 import org.concord.energy2d.system.Helper;
 import org.concord.energy2d.util.ColorFill;
@@ -113,6 +121,9 @@ public class View2D extends JPanel implements PropertyChangeListener {
 
 	private final static int MINIMUM_MOUSE_DRAG_RESPONSE_INTERVAL = 20;
 	private final static DecimalFormat TEMPERATURE_FORMAT = new DecimalFormat("###.#");
+	// the narrowest range an automatic temperature range is stretched to, so that tiny fluctuations are not shown as the full spectrum
+	private final static float MINIMUM_TEMPERATURE_RANGE = 1;
+	private final static DecimalFormat SCIENTIFIC_FORMAT = new DecimalFormat("0.##E0");
 	private Font smallFont = new Font(null, Font.PLAIN, 10);
 	private Font sensorReadingFont = new Font(null, Font.PLAIN, 10);
 	private Font labelFont = new Font("Arial", Font.PLAIN | Font.BOLD, 14);
@@ -135,6 +146,33 @@ public class View2D extends JPanel implements PropertyChangeListener {
 	private boolean frankOn = true;
 	private byte heatMapType = HEATMAP_TEMPERATURE;
 	private byte colorPaletteType = RAINBOW;
+	private int heatMapResolution;
+	private boolean autoTemperatureRange;
+	// texture paints are immutable, so one is shared by all the parts with the same texture
+	private Map<TextureKey, TexturePaint> texturePaints = new HashMap<TextureKey, TexturePaint>();
+	private TextureKey textureKey = new TextureKey();
+
+	/*
+	 * The view is composed of layers: the field layer (the heat map, whose image is cached by its renderer), the geometry layer (the parts, cached in a translucent image), the scene layer (the two with contours, sensors and other overlays drawn on them), and the chrome (the transient feedback of mouse interaction), which is drawn on top of the cached scene at every paint. Calling repaint() marks all the layers as dirty, repaintScene() only the scene, which is what the model needs when it advances, and mouse interaction only repaints the chrome. All the layers are drawn on the event dispatch thread.
+	 */
+	private BufferedImage sceneImage;
+	private boolean fieldLayerDirty = true, sceneLayerDirty = true;
+	private int fieldLayerVersion = -1;
+	private BufferedImage geometryImage;
+	private boolean geometryLayerDirty = true;
+	// what the colors and the labels of the parts in the geometry layer were derived from
+	private ScalarDistributionRenderer geometryRenderer;
+	private float geometryMinimum, geometryMaximum;
+	private int geometryFieldVersion;
+	private boolean geometryFollowsField;
+	// an offscreen view is drawn outside the event dispatch thread and cannot wait for anything to be done in the background
+	private boolean offscreen;
+	// run when what is traced in the background is done, which only changes the scene
+	private Runnable sceneRepainter = new Runnable() {
+		public void run() {
+			repaintScene();
+		}
+	};
 	private float[][] distribution;
 
 	private static Stroke thinStroke = new BasicStroke(1);
@@ -301,7 +339,10 @@ public class View2D extends JPanel implements PropertyChangeListener {
 		this.colorPaletteType = colorPaletteType;
 		temperatureRenderer = new ScalarDistributionRenderer(ColorPalette.getRgbArray(colorPaletteType), temperatureRenderer == null ? 0 : temperatureRenderer.getMinimum(), temperatureRenderer == null ? 40 : temperatureRenderer.getMaximum());
 		thermalEnergyRenderer = new ScalarDistributionRenderer(ColorPalette.getRgbArray(colorPaletteType), thermalEnergyRenderer == null ? 0 : thermalEnergyRenderer.getMinimum(), thermalEnergyRenderer == null ? 40 : thermalEnergyRenderer.getMaximum());
+		temperatureRenderer.setGridResolution(heatMapResolution);
+		thermalEnergyRenderer.setGridResolution(heatMapResolution);
 		colorPalette = new ColorPalette(ColorPalette.getRgbArray(colorPaletteType));
+		fieldLayerDirty = true;
 	}
 
 	public byte getColorPaletteType() {
@@ -681,6 +722,27 @@ public class View2D extends JPanel implements PropertyChangeListener {
 		return temperatureRenderer.isSmooth();
 	}
 
+	/** set the multiple of the grid resolution at which heat maps are colorized before being scaled to the view, or zero to colorize at the resolution of the view */
+	public void setHeatMapResolution(int heatMapResolution) {
+		this.heatMapResolution = heatMapResolution;
+		temperatureRenderer.setGridResolution(heatMapResolution);
+		thermalEnergyRenderer.setGridResolution(heatMapResolution);
+	}
+
+	public int getHeatMapResolution() {
+		return heatMapResolution;
+	}
+
+	/** if true, the temperature range of the heat map and the color palette follows the minimum and the maximum of the temperature field */
+	public void setAutoTemperatureRange(boolean b) {
+		autoTemperatureRange = b;
+		fieldLayerDirty = true;
+	}
+
+	public boolean isAutoTemperatureRange() {
+		return autoTemperatureRange;
+	}
+
 	public void setLabelFont(Font font) {
 		labelFont = font;
 	}
@@ -827,6 +889,24 @@ public class View2D extends JPanel implements PropertyChangeListener {
 		return g;
 	}
 
+	/** mark all the layers as dirty, so that the next paint draws everything again */
+	@Override
+	public void repaint() {
+		fieldLayerDirty = sceneLayerDirty = geometryLayerDirty = true;
+		super.repaint();
+	}
+
+	/** mark only the scene as dirty, for changes of the fields and the sensors, which leave the parts as they are. A change of the fields is found from the field version of the model. */
+	public void repaintScene() {
+		sceneLayerDirty = true;
+		super.repaint();
+	}
+
+	// paint the chrome again on top of the cached layers
+	private void repaintChrome() {
+		super.repaint();
+	}
+
 	/* Need to use this old double-buffering technique in order to avoid flickering when run as an applet on the Mac */
 	@Override
 	public void paint(Graphics g) {
@@ -837,32 +917,72 @@ public class View2D extends JPanel implements PropertyChangeListener {
 			g.drawImage(bimg, 0, 0, this);
 	}
 
+	/**
+	 * draw everything into the given graphics as if the view were painted on the screen, but with all the layers drawn again and everything traced right away. The view does not have to be displayed, which allows frames to be rendered in a headless environment.
+	 */
+	public void paintOffscreen(Graphics2D g) {
+		offscreen = true;
+		fieldLayerDirty = sceneLayerDirty = geometryLayerDirty = true;
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+		draw(g);
+	}
+
 	private void draw(Graphics2D g) {
 		int w = getWidth();
 		int h = getHeight();
-		Stroke stroke = g.getStroke();
+		if (w <= 0 || h <= 0)
+			return;
+		if (sceneImage == null || sceneImage.getWidth() != w || sceneImage.getHeight() != h) {
+			sceneImage = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+			fieldLayerDirty = true;
+		}
+		int version = model.getFieldVersion();
+		if (version != fieldLayerVersion)
+			fieldLayerDirty = true;
+		if (fieldLayerDirty || sceneLayerDirty) {
+			Graphics2D sg = sceneImage.createGraphics();
+			sg.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			sg.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			drawScene(sg, fieldLayerDirty);
+			sg.dispose();
+			fieldLayerVersion = version;
+			fieldLayerDirty = sceneLayerDirty = false;
+		}
+		g.drawImage(sceneImage, 0, 0, this);
+		drawChrome(g);
+	}
+
+	private void drawScene(Graphics2D g, boolean fieldChanged) {
+		int w = getWidth();
 		g.setColor(Color.white);
-		g.fillRect(0, 0, w, h);
+		g.fillRect(0, 0, w, getHeight());
 		switch (heatMapType) {
 		case HEATMAP_TEMPERATURE:
-			drawTemperatureField(g);
+			if (fieldChanged)
+				drawTemperatureField(g);
+			else
+				temperatureRenderer.draw(this, g);
 			break;
 		case HEATMAP_THERMAL_ENERGY:
-			drawThermalEnergyField(g);
+			if (fieldChanged)
+				drawThermalEnergyField(g);
+			else
+				thermalEnergyRenderer.draw(this, g);
 			break;
 		}
-		drawParts(g);
+		drawGeometryLayer(g);
 		if (isotherms != null) {
 			g.setStroke(thinStroke);
-			isotherms.render(g, getSize(), model.getTemperature());
+			isotherms.render(g, getSize(), model.getTemperature(), model.getFieldVersion());
 		}
 		if (showStreamLines && streamlines != null) {
 			g.setStroke(thinStroke);
-			streamlines.render(g, getSize(), model.getXVelocity(), model.getYVelocity());
+			streamlines.render(offscreen ? null : sceneRepainter, g, getSize(), model.getXVelocity(), model.getYVelocity(), model.getFieldVersion());
 		}
 		if (showHeatFluxLines && heatFluxLines != null) {
 			g.setStroke(thinStroke);
-			heatFluxLines.render(g, getSize(), model.getTemperature(), -1);
+			heatFluxLines.render(offscreen ? null : sceneRepainter, g, getSize(), model.getTemperature(), -1, model.getFieldVersion());
 		}
 		if (selectedManipulable != null) {
 			if (selectedManipulable instanceof Thermometer) {
@@ -885,13 +1005,6 @@ public class View2D extends JPanel implements PropertyChangeListener {
 				}
 			}
 		}
-		if (mouseBeingDragged) {
-			if (movingShape != null) {
-				g.setColor(Color.white);
-				g.setStroke(dashed);
-				movingShape.render(g);
-			}
-		}
 		if (showGrid && gridRenderer != null)
 			gridRenderer.render(this, g);
 		if (rulerRenderer != null) {
@@ -913,6 +1026,7 @@ public class View2D extends JPanel implements PropertyChangeListener {
 		if (showHeatFluxArrows)
 			vectorFieldRenderer.renderHeatFlux(model.getTemperature(), model.getConductivity(), this, g);
 		drawThermometers(g);
+		drawSensors(g);
 		drawPhotons(g);
 		drawTextBoxes(g);
 		drawPictures(g);
@@ -920,15 +1034,18 @@ public class View2D extends JPanel implements PropertyChangeListener {
 			graphRenderer.setDrawFrame(true);
 			if (model.getTime() > graphRenderer.getXmax())
 				graphRenderer.doubleXmax();
+			// the time series are read without locking, so the model is not blocked while drawing
+			Thermometer[] thermometers;
 			synchronized (model.getThermometers()) {
-				for (Thermometer t : model.getThermometers()) {
-					if (t.getCurrentData() > graphRenderer.getYmax() + 2) { // allow 2 degrees of overshot above max
-						graphRenderer.increaseYmax();
-					} else if (t.getCurrentData() < graphRenderer.getYmin() - 2) { // allow 2 degrees of overshot below min
-						graphRenderer.decreaseYmin();
-					}
-					graphRenderer.render(this, g, t.getData(), t.getLabel(), selectedManipulable == t);
+				thermometers = model.getThermometers().toArray(new Thermometer[model.getThermometers().size()]);
+			}
+			for (Thermometer t : thermometers) {
+				if (t.getCurrentData() > graphRenderer.getYmax() + 2) { // allow 2 degrees of overshot above max
+					graphRenderer.increaseYmax();
+				} else if (t.getCurrentData() < graphRenderer.getYmin() - 2) { // allow 2 degrees of overshot below min
+					graphRenderer.decreaseYmin();
 				}
+				graphRenderer.render(this, g, t.getData(), t.getLabel(), selectedManipulable == t);
 			}
 		}
 		if (clockOn) {
@@ -937,7 +1054,58 @@ public class View2D extends JPanel implements PropertyChangeListener {
 			g.drawString(MiscUtil.formatTime((int) time), w - 68, 16);
 		}
 
+	}
+
+	private void drawGeometryLayer(Graphics2D g) {
+		int w = getWidth();
+		int h = getHeight();
+		if (geometryImage == null || geometryImage.getWidth() != w || geometryImage.getHeight() != h) {
+			geometryImage = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+			geometryLayerDirty = true;
+		}
+		// the parts at a fixed temperature take their colors from the heat map, and some labels show quantities of the fields
+		if (geometryRenderer != temperatureRenderer || geometryMinimum != temperatureRenderer.getMinimum() || geometryMaximum != temperatureRenderer.getMaximum())
+			geometryLayerDirty = true;
+		else if (geometryFollowsField && geometryFieldVersion != model.getFieldVersion())
+			geometryLayerDirty = true;
+		if (geometryLayerDirty) {
+			Graphics2D gg = geometryImage.createGraphics();
+			gg.setComposite(AlphaComposite.Clear);
+			gg.fillRect(0, 0, w, h);
+			gg.setComposite(AlphaComposite.SrcOver);
+			gg.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			gg.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			drawParts(gg);
+			gg.dispose();
+			geometryRenderer = temperatureRenderer;
+			geometryMinimum = temperatureRenderer.getMinimum();
+			geometryMaximum = temperatureRenderer.getMaximum();
+			geometryFieldVersion = model.getFieldVersion();
+			geometryFollowsField = false;
+			synchronized (model.getParts()) {
+				for (Part p : model.getParts()) {
+					if ("%thermal_energy".equalsIgnoreCase(p.getLabel())) {
+						geometryFollowsField = true;
+						break;
+					}
+				}
+			}
+			geometryLayerDirty = false;
+		}
+		g.drawImage(geometryImage, 0, 0, null);
+	}
+
+	private void drawChrome(Graphics2D g) {
+		int w = getWidth();
+		int h = getHeight();
+		Stroke stroke = g.getStroke();
 		g.setStroke(dashed);
+		if (mouseBeingDragged) {
+			if (movingShape != null) {
+				g.setColor(Color.white);
+				movingShape.render(g);
+			}
+		}
 		switch (actionMode) {
 		case RECTANGLE_MODE:
 			g.setColor(TRANSLUCENT_GRAY);
@@ -995,13 +1163,18 @@ public class View2D extends JPanel implements PropertyChangeListener {
 	}
 
 	Color getContrastColor(int x, int y) {
+		return new Color(getContrastRGB(x, y));
+	}
+
+	/** @return the packed RGB of the inverse of the heat map color at the given pixel, without allocating a color */
+	int getContrastRGB(int x, int y) {
 		switch (heatMapType) {
 		case HEATMAP_TEMPERATURE:
-			return new Color(~temperatureRenderer.getRGB(x, y));
+			return ~temperatureRenderer.getRGB(x, y) & 0xffffff;
 		case HEATMAP_THERMAL_ENERGY:
-			return new Color(~thermalEnergyRenderer.getRGB(x, y));
+			return ~thermalEnergyRenderer.getRGB(x, y) & 0xffffff;
 		default:
-			return Color.black;
+			return 0;
 		}
 	}
 
@@ -1050,6 +1223,63 @@ public class View2D extends JPanel implements PropertyChangeListener {
 		}
 	}
 
+	private void drawSensors(Graphics2D g) {
+		List<HeatFluxSensor> heatFluxSensors = model.getHeatFluxSensors();
+		List<RegionSensor> regionSensors = model.getRegionSensors();
+		if (heatFluxSensors.isEmpty() && regionSensors.isEmpty())
+			return;
+		Stroke oldStroke = g.getStroke();
+		g.setFont(sensorReadingFont);
+		int x1, y1, x2, y2;
+		String str;
+		if (!heatFluxSensors.isEmpty()) {
+			g.setStroke(moderateStroke);
+			synchronized (heatFluxSensors) {
+				for (HeatFluxSensor f : heatFluxSensors) {
+					Line2D.Float l = f.getLine();
+					x1 = convertPointToPixelX(l.x1);
+					y1 = convertPointToPixelY(l.y1);
+					x2 = convertPointToPixelX(l.x2);
+					y2 = convertPointToPixelY(l.y2);
+					g.setColor(getContrastColor((x1 + x2) / 2, (y1 + y2) / 2));
+					g.drawLine(x1, y1, x2, y2);
+					if (!f.getData().isEmpty()) {
+						str = SCIENTIFIC_FORMAT.format(f.getCurrentData()) + " W/m";
+						centerString(str, g, (x1 + x2) / 2, Math.min(y1, y2) - 5);
+					}
+					if (f.getLabel() != null)
+						centerString(f.getLabel(), g, (x1 + x2) / 2, Math.max(y1, y2) + 15);
+				}
+			}
+		}
+		if (!regionSensors.isEmpty()) {
+			g.setStroke(dashed);
+			synchronized (regionSensors) {
+				for (RegionSensor r : regionSensors) {
+					Rectangle2D bounds = r.getShape().getBounds2D();
+					x1 = convertPointToPixelX((float) bounds.getMinX());
+					y1 = convertPointToPixelY((float) bounds.getMinY());
+					x2 = convertPointToPixelX((float) bounds.getMaxX());
+					y2 = convertPointToPixelY((float) bounds.getMaxY());
+					g.setColor(getContrastColor((x1 + x2) / 2, (y1 + y2) / 2));
+					// the outline of a part is drawn with the part
+					if (r.getPart() == null)
+						g.drawRect(x1, y1, x2 - x1, y2 - y1);
+					if (!r.getData().isEmpty()) {
+						if (r.getQuantity() == RegionSensor.ENERGY)
+							str = SCIENTIFIC_FORMAT.format(r.getCurrentData()) + " J/m\u00b3";
+						else
+							str = TEMPERATURE_FORMAT.format(r.getCurrentData()) + '\u2103';
+						centerString(str, g, (x1 + x2) / 2, (y1 + y2) / 2);
+					}
+					if (r.getLabel() != null)
+						centerString(r.getLabel(), g, (x1 + x2) / 2, (y1 + y2) / 2 + 15);
+				}
+			}
+		}
+		g.setStroke(oldStroke);
+	}
+
 	private static void centerString(String s, Graphics2D g, int x, int y) {
 		int stringWidth = g.getFontMetrics().stringWidth(s);
 		g.drawString(s, x - stringWidth / 2, y);
@@ -1066,9 +1296,51 @@ public class View2D extends JPanel implements PropertyChangeListener {
 	}
 
 	private void setPaint(Graphics2D g, Texture texture, boolean filled) {
-		Color bg = new Color(((filled ? texture.getAlpha() : 0) << 24) | (0x00ffffff & texture.getBackground()), true);
-		Color fg = new Color((texture.getAlpha() << 24) | (0x00ffffff & texture.getForeground()), true);
-		g.setPaint(TextureFactory.createPattern(texture.getStyle(), texture.getCellWidth(), texture.getCellHeight(), fg, bg));
+		int bg = ((filled ? texture.getAlpha() : 0) << 24) | (0x00ffffff & texture.getBackground());
+		int fg = (texture.getAlpha() << 24) | (0x00ffffff & texture.getForeground());
+		textureKey.set(texture.getStyle(), texture.getCellWidth(), texture.getCellHeight(), fg, bg);
+		TexturePaint paint = texturePaints.get(textureKey);
+		if (paint == null) {
+			// the properties of textures change rarely, so stale entries are just dropped wholesale if they pile up
+			if (texturePaints.size() >= 64)
+				texturePaints.clear();
+			paint = TextureFactory.createPattern(texture.getStyle(), texture.getCellWidth(), texture.getCellHeight(), new Color(fg, true), new Color(bg, true));
+			TextureKey key = new TextureKey();
+			key.set(texture.getStyle(), texture.getCellWidth(), texture.getCellHeight(), fg, bg);
+			texturePaints.put(key, paint);
+		}
+		g.setPaint(paint);
+	}
+
+	private static class TextureKey {
+
+		private int style, cellWidth, cellHeight, foreground, background;
+
+		void set(int style, int cellWidth, int cellHeight, int foreground, int background) {
+			this.style = style;
+			this.cellWidth = cellWidth;
+			this.cellHeight = cellHeight;
+			this.foreground = foreground;
+			this.background = background;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof TextureKey))
+				return false;
+			TextureKey k = (TextureKey) o;
+			return style == k.style && cellWidth == k.cellWidth && cellHeight == k.cellHeight && foreground == k.foreground && background == k.background;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = MiscUtil.hash(17, style);
+			result = MiscUtil.hash(result, cellWidth);
+			result = MiscUtil.hash(result, cellHeight);
+			result = MiscUtil.hash(result, foreground);
+			return MiscUtil.hash(result, background);
+		}
+
 	}
 
 	private void drawParts(Graphics2D g) {
@@ -1273,6 +1545,16 @@ public class View2D extends JPanel implements PropertyChangeListener {
 	}
 
 	private void drawTemperatureField(Graphics2D g) {
+		if (autoTemperatureRange) {
+			// the statistics come with the step that produced the field, so this costs no extra pass over it
+			FieldStatistics s = model.getTemperatureStatistics();
+			float min = s.getMinimum();
+			float max = Math.max(s.getMaximum(), min + MINIMUM_TEMPERATURE_RANGE);
+			if (min != temperatureRenderer.getMinimum() || max != temperatureRenderer.getMaximum()) {
+				temperatureRenderer.setMinimum(min);
+				temperatureRenderer.setMaximum(max);
+			}
+		}
 		temperatureRenderer.render(this, g, model.getTemperature());
 	}
 
@@ -1752,7 +2034,8 @@ public class View2D extends JPanel implements PropertyChangeListener {
 			heatingY = convertPixelToPointY(y);
 			break;
 		}
-		repaint();
+		// dragging only changes the chrome, and heating changes the field version
+		repaintChrome();
 		e.consume();
 	}
 
@@ -2003,7 +2286,7 @@ public class View2D extends JPanel implements PropertyChangeListener {
 		case POLYGON_MODE:
 			if (!showGraph) {
 				mouseMovedPoint.setLocation(x, y);
-				repaint();
+				repaintChrome();
 			}
 			break;
 		}
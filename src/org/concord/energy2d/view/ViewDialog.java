@@ -335,6 +335,20 @@ class ViewDialog extends JDialog {
 		p.add(unitLabel2);
 		count++;
 
+		p.add(new JLabel("Automatic range"));
+		JCheckBox autoRangeCheckBox = new JCheckBox("Follow the temperature field");
+		autoRangeCheckBox.setSelected(view.isAutoTemperatureRange());
+		autoRangeCheckBox.addItemListener(new ItemListener() {
+			public void itemStateChanged(ItemEvent e) {
+				JCheckBox src = (JCheckBox) e.getSource();
+				view.setAutoTemperatureRange(src.isSelected());
+				view.repaint();
+			}
+		});
+		p.add(autoRangeCheckBox);
+		p.add(new JPanel());
+		count++;
+
 		MiscUtil.makeCompactGrid(p, count, 3, 5, 5, 10, 2);
 
 		p = new JPanel(new SpringLayout());